@@ -0,0 +1,12 @@
+package ch.x42.terye.oak.mk.test.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the microkernel benchmarks with one thread per available processor.
+ * Other thread counts can be set with the -t option of JMH.
+ */
+@Threads(Threads.MAX)
+public class ConcurrentClientsBenchmark extends MicroKernelBenchmark {
+
+}
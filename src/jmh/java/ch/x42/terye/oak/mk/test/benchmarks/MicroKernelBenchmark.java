@@ -0,0 +1,254 @@
+package ch.x42.terye.oak.mk.test.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+import ch.x42.terye.oak.mk.test.tests.JsopBatch;
+import ch.x42.terye.oak.mk.test.tests.MicroKernelPerformanceTest;
+import ch.x42.terye.oak.mk.test.tests.TreeCommitter;
+import ch.x42.terye.oak.mk.test.tests.TreeDataset;
+
+/**
+ * JMH benchmarks of single microkernel operations. Unlike the JUnit tests,
+ * which measure whole workloads, these benchmarks measure the cost of one
+ * call in isolation and leave warm-up, forking and dead-code elimination to
+ * JMH. The microkernel is shared by all benchmark threads and works on a
+ * seeded tree (see TreeDataset). The subclasses define the number of
+ * threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public abstract class MicroKernelBenchmark {
+
+    /**
+     * The fixture and the microkernel, set up once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        // fixture name as accepted by the mktest.fixtures property
+        @Param({
+            "memory"
+        })
+        public String fixture;
+
+        @Param({
+            "4"
+        })
+        public int treeHeight;
+
+        @Param({
+            "8"
+        })
+        public int branchingFactor;
+
+        private MicroKernelTestFixture testFixture;
+        private MicroKernel mk;
+        // used to name the parent nodes of the writers
+        private final AtomicInteger nbWriters = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            testFixture = MicroKernelPerformanceTest.createFixture(fixture);
+            testFixture.setUpBeforeTest();
+            testFixture.seed(new TreeDataset(1, treeHeight, branchingFactor,
+                    Runtime.getRuntime().availableProcessors()));
+            mk = testFixture.createMicroKernel();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            testFixture.disposeMicroKernel(mk);
+            testFixture.tearDownAfterTest();
+            testFixture.close();
+        }
+
+        /**
+         * Returns the absolute path of a random node at the specified level
+         * of the seeded tree (level 0 being its root).
+         */
+        private String getRandomPath(Random random, int level) {
+            StringBuilder path = new StringBuilder("/").append(
+                    TreeCommitter.NODE_PREFIX).append(0);
+            for (int i = 0; i < level; i++) {
+                path.append('/').append(TreeCommitter.NODE_PREFIX)
+                        .append(random.nextInt(branchingFactor));
+            }
+            return path.toString();
+        }
+
+    }
+
+    /**
+     * Paths of random nodes of the seeded tree, drawn in advance so that
+     * the benchmarks don't measure their creation.
+     */
+    private static class Paths {
+
+        private static final int NB_PATHS = 1024;
+
+        private final String[] paths;
+        private int next;
+
+        /**
+         * @param depth the depth of the subtrees read below the nodes
+         */
+        public Paths(Repository repository, int depth) {
+            Random random = new Random(Thread.currentThread().getId());
+            paths = new String[NB_PATHS];
+            for (int i = 0; i < NB_PATHS; i++) {
+                // leave room for the requested depth below the node
+                int level = random.nextInt(Math.max(1, repository.treeHeight
+                        - depth + 1));
+                paths[i] = repository.getRandomPath(random, level);
+            }
+        }
+
+        public String next() {
+            String path = paths[next];
+            next = (next + 1) % NB_PATHS;
+            return path;
+        }
+
+    }
+
+    /**
+     * Random nodes at any level of the seeded tree.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private Paths paths;
+
+        @Setup(Level.Trial)
+        public void setUp(Repository repository) {
+            paths = new Paths(repository, 0);
+        }
+
+    }
+
+    /**
+     * Random nodes having a subtree of the requested depth below them. Only
+     * used by the benchmark taking the depth as argument, so that the other
+     * benchmarks aren't repeated for every depth.
+     */
+    @State(Scope.Thread)
+    public static class SubtreeReader {
+
+        // the depth argument of getNodes
+        @Param({
+            "0", "1", "2"
+        })
+        public int depth;
+
+        private Paths paths;
+
+        @Setup(Level.Trial)
+        public void setUp(Repository repository) {
+            paths = new Paths(repository, depth);
+        }
+
+    }
+
+    /**
+     * Every writer adds its nodes below a parent node of its own, so that
+     * the writers don't conflict. The nodes are spread over buckets of
+     * MAX_CHILD_NODES nodes, so that the cost of a commit doesn't depend on
+     * how many nodes have been added before.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private static final int MAX_CHILD_NODES = 1000;
+
+        private String parent;
+        private String bucket;
+        private final JsopBatch batch = new JsopBatch();
+        private int nbNodes;
+
+        @Setup(Level.Trial)
+        public void setUp(Repository repository) {
+            String name = "writer_" + repository.nbWriters.getAndIncrement();
+            repository.mk.commit("/", "+\"" + name + "\":{}", null, "");
+            parent = "/" + name;
+        }
+
+        private void addNode() {
+            if (nbNodes % MAX_CHILD_NODES == 0) {
+                bucket = parent + "/bucket_" + nbNodes / MAX_CHILD_NODES;
+                batch.addNode(bucket);
+            }
+            batch.addNode(bucket, TreeCommitter.NODE_PREFIX, nbNodes
+                    % MAX_CHILD_NODES);
+            nbNodes++;
+        }
+
+    }
+
+    /**
+     * The number of nodes per commit of the batched commit benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({
+            "10", "100", "1000"
+        })
+        public int batchSize;
+
+    }
+
+    @Benchmark
+    public void getHeadRevision(Repository repository, Blackhole bh) {
+        bh.consume(repository.mk.getHeadRevision());
+    }
+
+    @Benchmark
+    public void nodeExists(Repository repository, Reader reader, Blackhole bh) {
+        bh.consume(repository.mk.nodeExists(reader.paths.next(), null));
+    }
+
+    @Benchmark
+    public void getNodes(Repository repository, SubtreeReader reader,
+            Blackhole bh) {
+        bh.consume(repository.mk.getNodes(reader.paths.next(), null,
+                reader.depth, 0, -1, null));
+    }
+
+    @Benchmark
+    public void commitNode(Repository repository, Writer writer, Blackhole bh) {
+        writer.addNode();
+        bh.consume(repository.mk.commit("", writer.batch.flush(), null, ""));
+    }
+
+    @Benchmark
+    public void commitBatch(Repository repository, Writer writer, Batch batch,
+            Blackhole bh) {
+        for (int i = 0; i < batch.batchSize; i++) {
+            writer.addNode();
+        }
+        bh.consume(repository.mk.commit("", writer.batch.flush(), null, ""));
+    }
+
+}
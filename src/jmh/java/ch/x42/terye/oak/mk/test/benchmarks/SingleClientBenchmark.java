@@ -0,0 +1,11 @@
+package ch.x42.terye.oak.mk.test.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the microkernel benchmarks with a single thread.
+ */
+@Threads(1)
+public class SingleClientBenchmark extends MicroKernelBenchmark {
+
+}
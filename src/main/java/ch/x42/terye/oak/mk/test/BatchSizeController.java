@@ -0,0 +1,232 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the size of batches (e.g. the number of nodes per commit) at runtime
+ * so as to maximize the throughput. The workers ask the controller for the
+ * current batch size and report every batch they have processed. The
+ * throughput is measured over steps of at least MIN_STEP_BATCHES batches and
+ * MIN_STEP_DURATION, after which the batch size is changed by hill climbing:
+ * as long as the throughput improves, the size keeps being multiplied (or
+ * divided) by a factor. Otherwise the controller returns to the best size
+ * found so far, reverses the direction and reduces the factor. Once the
+ * factor drops below MIN_FACTOR, the controller has converged and the batch
+ * size remains fixed. The size can also be fixed explicitly (see freeze()).
+ * <p>
+ * Optionally, a ceiling for the mean batch latency can be set. Sizes
+ * exceeding the ceiling are considered worse than any size respecting it.
+ * The controller is thread-safe and meant to be shared by all workers.
+ */
+public class BatchSizeController {
+
+    private static final int MIN_STEP_BATCHES = 10;
+    private static final long MIN_STEP_DURATION = TimeUnit.MILLISECONDS
+            .toNanos(500);
+    private static final double INITIAL_FACTOR = 2.0;
+    private static final double MIN_FACTOR = 1.1;
+
+    private final int minSize;
+    private final int maxSize;
+    // latency ceiling in nanoseconds, 0 if none
+    private final long maxLatency;
+    // batch size being evaluated
+    private int size;
+    private double factor;
+    // 1 if the size is being increased, -1 if it is being decreased
+    private int direction;
+    // best size found so far and its score
+    private int best;
+    private double bestScore;
+    private boolean converged;
+    // measurements of the current step
+    private long stepStart;
+    private long stepBatches;
+    private long stepItems;
+    private long stepLatency;
+    // all measurements by batch size
+    private final SortedMap<Integer, Sample> curve;
+
+    /**
+     * @param initialSize the batch size to start with
+     * @param minSize the minimum batch size
+     * @param maxSize the maximum batch size
+     * @param maxLatency the ceiling of the mean batch latency in nanoseconds,
+     *            0 for none
+     */
+    public BatchSizeController(int initialSize, int minSize, int maxSize,
+            long maxLatency) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxLatency = maxLatency;
+        size = Math.max(minSize, Math.min(initialSize, maxSize));
+        factor = INITIAL_FACTOR;
+        direction = 1;
+        best = -1;
+        curve = new TreeMap<Integer, Sample>();
+    }
+
+    /**
+     * Returns the size the next batch should have.
+     */
+    public synchronized int getBatchSize() {
+        return size;
+    }
+
+    public synchronized boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * Stops adapting the batch size, so that the batches of measured runs all
+     * have the same size: the size is fixed to the best size found so far
+     * (or the current size if nothing has been measured yet). Batches are
+     * still recorded.
+     *
+     * @return true if the controller had not converged yet
+     */
+    public synchronized boolean freeze() {
+        if (converged) {
+            return false;
+        }
+        if (best != -1) {
+            size = best;
+        }
+        converged = true;
+        return true;
+    }
+
+    /**
+     * Reports a processed batch.
+     *
+     * @param items the number of items (e.g. nodes) in the batch
+     * @param latency the latency of the batch in nanoseconds
+     */
+    public synchronized void record(int items, long latency) {
+        long now = System.nanoTime();
+        if (stepBatches == 0) {
+            stepStart = now - latency;
+        }
+        stepBatches++;
+        stepItems += items;
+        stepLatency += latency;
+        long elapsed = now - stepStart;
+        if (stepBatches < MIN_STEP_BATCHES || elapsed < MIN_STEP_DURATION) {
+            return;
+        }
+        Sample sample = curve.get(size);
+        if (sample == null) {
+            sample = new Sample();
+            curve.put(size, sample);
+        }
+        sample.batches += stepBatches;
+        sample.items += stepItems;
+        sample.latency += stepLatency;
+        sample.time += elapsed;
+        double throughput = stepItems / (elapsed / 1000000000.0);
+        double meanLatency = stepLatency / (double) stepBatches;
+        stepBatches = 0;
+        stepItems = 0;
+        stepLatency = 0;
+        if (!converged) {
+            // sizes exceeding the latency ceiling score below all others
+            double score = throughput;
+            if (maxLatency > 0 && meanLatency > maxLatency) {
+                score = -meanLatency;
+            }
+            adapt(score);
+        }
+    }
+
+    private void adapt(double score) {
+        if (best == -1 || score > bestScore) {
+            best = size;
+            bestScore = score;
+        } else {
+            reverse();
+        }
+        while (!converged) {
+            int next = step(best);
+            if (next != best) {
+                size = next;
+                return;
+            }
+            // reached a bound
+            reverse();
+        }
+        size = best;
+    }
+
+    private void reverse() {
+        direction = -direction;
+        factor = Math.sqrt(factor);
+        if (factor < MIN_FACTOR) {
+            converged = true;
+        }
+    }
+
+    private int step(int from) {
+        int next;
+        if (direction > 0) {
+            next = Math.max(from + 1, (int) Math.round(from * factor));
+        } else {
+            next = Math.min(from - 1, (int) Math.round(from / factor));
+        }
+        return Math.max(minSize, Math.min(next, maxSize));
+    }
+
+    /**
+     * Returns the measurements of all batch sizes explored so far.
+     */
+    public synchronized SortedMap<Integer, Sample> getCurve() {
+        SortedMap<Integer, Sample> copy = new TreeMap<Integer, Sample>();
+        for (Integer key : curve.keySet()) {
+            copy.put(key, curve.get(key).copy());
+        }
+        return Collections.unmodifiableSortedMap(copy);
+    }
+
+    /**
+     * Measurements of a batch size.
+     */
+    public static class Sample {
+
+        private long batches;
+        private long items;
+        // sum of the batch latencies and measured time in nanoseconds
+        private long latency;
+        private long time;
+
+        private Sample copy() {
+            Sample copy = new Sample();
+            copy.batches = batches;
+            copy.items = items;
+            copy.latency = latency;
+            copy.time = time;
+            return copy;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * Returns the number of items per second.
+         */
+        public double getThroughput() {
+            return time == 0 ? 0.0 : items / (time / 1000000000.0);
+        }
+
+        /**
+         * Returns the mean batch latency in nanoseconds.
+         */
+        public double getMeanLatency() {
+            return batches == 0 ? 0.0 : latency / (double) batches;
+        }
+
+    }
+
+}
@@ -0,0 +1,11 @@
+package ch.x42.terye.oak.mk.test;
+
+/**
+ * Marker interface for test parameters (e.g. fixtures) that make a test
+ * measure nothing but the overhead of the test itself. After all runs, the
+ * latencies measured with such a parameter are compared to the latencies
+ * measured with the other values of that parameter.
+ */
+public interface Calibration {
+
+}
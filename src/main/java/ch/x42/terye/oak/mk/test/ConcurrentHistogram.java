@@ -0,0 +1,96 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram that can be recorded into by many threads concurrently. Like the
+ * striped counter, every thread records into one of several stripes using
+ * atomic operations only. Use snapshot() in order to get a (plain) histogram
+ * of the values recorded so far.
+ */
+public class ConcurrentHistogram {
+
+    private final Stripe[] stripes;
+
+    public ConcurrentHistogram() {
+        stripes = new Stripe[StripedCounter.STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Records a value (i.e. a latency in nanoseconds).
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > Histogram.MAX_VALUE) {
+            value = Histogram.MAX_VALUE;
+        }
+        Stripe stripe = stripes[StripedCounter.getStripe()];
+        stripe.counts.getAndIncrement(Histogram.getIndex(value));
+        stripe.sum.getAndAdd(value);
+        long min;
+        while (value < (min = stripe.min.get())) {
+            if (stripe.min.compareAndSet(min, value)) {
+                break;
+            }
+        }
+        long max;
+        while (value > (max = stripe.max.get())) {
+            if (stripe.max.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns a histogram containing the values recorded so far. Values
+     * recorded concurrently to this call may or may not be included.
+     */
+    public Histogram snapshot() {
+        Histogram histogram = new Histogram();
+        long[] counts = new long[stripes[0].counts.length()];
+        for (Stripe stripe : stripes) {
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                long c = stripe.counts.get(i);
+                counts[i] = c;
+                count += c;
+            }
+            histogram.add(counts, count, stripe.sum.get(), stripe.min.get(),
+                    stripe.max.get());
+        }
+        return histogram;
+    }
+
+    public void reset() {
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < stripe.counts.length(); i++) {
+                stripe.counts.set(i, 0);
+            }
+            stripe.sum.set(0);
+            stripe.min.set(Long.MAX_VALUE);
+            stripe.max.set(Long.MIN_VALUE);
+        }
+    }
+
+    private static class Stripe {
+
+        private final AtomicLongArray counts;
+        private final AtomicLong sum;
+        private final AtomicLong min;
+        private final AtomicLong max;
+
+        public Stripe() {
+            counts = new AtomicLongArray(Histogram.BUCKET_COUNT);
+            sum = new AtomicLong();
+            min = new AtomicLong(Long.MAX_VALUE);
+            max = new AtomicLong(Long.MIN_VALUE);
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Metadata about the environment the tests are run in, stored along with the
+ * results so that results from different machines or revisions can be told
+ * apart.
+ */
+public class Environment {
+
+    /**
+     * System property defining the revision of the code under test. If not
+     * set, the revision is determined using "git rev-parse HEAD".
+     */
+    public static final String PROPERTY_REVISION = "mktest.revision";
+
+    private static Map<String, Object> values;
+
+    private Environment() {
+    }
+
+    /**
+     * Returns the environment metadata (collected once per JVM).
+     */
+    public static synchronized Map<String, Object> get() {
+        if (values == null) {
+            Runtime runtime = Runtime.getRuntime();
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("timestamp", format(new Date()));
+            map.put("host", getHostName());
+            map.put("os", System.getProperty("os.name") + " "
+                    + System.getProperty("os.version") + " ("
+                    + System.getProperty("os.arch") + ")");
+            map.put("jvm", System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.vm.version"));
+            map.put("javaVersion", System.getProperty("java.version"));
+            map.put("cores", runtime.availableProcessors());
+            map.put("maxHeap", runtime.maxMemory());
+            map.put("revision", getRevision());
+            values = Collections.unmodifiableMap(map);
+        }
+        return values;
+    }
+
+    /**
+     * Formats a date as ISO 8601 timestamp (UTC).
+     */
+    public static String format(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String getRevision() {
+        String revision = System.getProperty(PROPERTY_REVISION);
+        if (revision != null) {
+            return revision;
+        }
+        try {
+            Process process = new ProcessBuilder("git", "rev-parse", "HEAD")
+                    .redirectErrorStream(true).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), "UTF-8"));
+            try {
+                revision = reader.readLine();
+            } finally {
+                reader.close();
+            }
+            return process.waitFor() == 0 ? revision : null;
+        } catch (Exception e) {
+            // git not available
+            return null;
+        }
+    }
+
+}
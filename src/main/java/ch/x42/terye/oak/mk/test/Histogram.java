@@ -0,0 +1,216 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size histogram of latencies in nanoseconds. Values are counted in
+ * log-linear buckets: values below 128 are counted exactly, larger values in
+ * buckets whose width is less than 1/64th of their lower bound. Recording a
+ * value does not allocate any memory. A histogram is not thread-safe, the
+ * intended usage is that every thread records into its own histogram and that
+ * the histograms are merged using add() once the threads are done.
+ */
+public class Histogram {
+
+    // number of bits used to resolve values within a bucket
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    // largest value that can be tracked (about 4.9 hours), larger values are
+    // counted as this value
+    public static final long MAX_VALUE = (1L << 44) - 1;
+    // total number of buckets
+    static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+    private final long[] counts;
+    private long totalCount;
+    private long sum;
+    private long min;
+    private long max;
+
+    public Histogram() {
+        counts = new long[BUCKET_COUNT];
+        reset();
+    }
+
+    /**
+     * Returns the index of the bucket the specified value falls into.
+     */
+    static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // number of bits the value has to be shifted in order to fit into
+        // the sub buckets
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return shift * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the smallest value that falls into the bucket with the specified
+     * index.
+     */
+    static long getLowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    /**
+     * Returns the largest value that falls into the bucket with the specified
+     * index.
+     */
+    static long getHighestValue(int index) {
+        if (index + 1 >= BUCKET_COUNT) {
+            return MAX_VALUE;
+        }
+        return getLowestValue(index + 1) - 1;
+    }
+
+    /**
+     * Records a value (i.e. a latency in nanoseconds).
+     */
+    public void record(long value) {
+        recordValues(value, 1);
+    }
+
+    /**
+     * Records a value a specified number of times.
+     */
+    public void recordValues(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts[getIndex(value)] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all values recorded by the specified histogram to this histogram.
+     */
+    public void add(Histogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Adds values given as bucket counts (as used by the concurrent
+     * histogram).
+     */
+    void add(long[] bucketCounts, long count, long sum, long min, long max) {
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += bucketCounts[i];
+        }
+        totalCount += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * Returns a copy of this histogram.
+     */
+    public Histogram copy() {
+        Histogram copy = new Histogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public double getMean() {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        return sum / (double) totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return totalCount == 0 ? 0 : max;
+    }
+
+    /**
+     * Returns the value below or at which the specified percentage of the
+     * recorded values lie.
+     *
+     * @param percentile the percentile, between 0.0 and 100.0
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        rank = Math.max(1, Math.min(rank, totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // report the upper end of the bucket, but stay within the
+                // range of the recorded values
+                return Math.max(min, Math.min(getHighestValue(i), max));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the non-empty buckets as pairs of the lowest value falling into
+     * the bucket and the number of values recorded in it.
+     */
+    public List<long[]> getBuckets() {
+        List<long[]> buckets = new ArrayList<long[]>();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] > 0) {
+                buckets.add(new long[] {
+                    getLowestValue(i), counts[i]
+                });
+            }
+        }
+        return buckets;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+}
@@ -0,0 +1,77 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time window of a duration-based test run. After the run has been started,
+ * the window consists of three consecutive phases: ramp-up, measurement and
+ * ramp-down. Operations are performed during all phases, but only the ones
+ * started in the measurement phase are taken into account. This way the
+ * measurements neither include the warm-up of the threads nor the end of the
+ * run, where some threads might already be done while others are still busy.
+ */
+public class MeasurementWindow {
+
+    private final long rampUp;
+    private final long duration;
+    private final long rampDown;
+    // start time of the run, or -1 if not yet started
+    private volatile long start;
+
+    /**
+     * @param rampUp the length of the ramp-up phase
+     * @param duration the length of the measurement phase
+     * @param rampDown the length of the ramp-down phase
+     * @param unit the time unit of the lengths
+     */
+    public MeasurementWindow(long rampUp, long duration, long rampDown,
+            TimeUnit unit) {
+        this.rampUp = unit.toNanos(rampUp);
+        this.duration = unit.toNanos(duration);
+        this.rampDown = unit.toNanos(rampDown);
+        this.start = -1;
+    }
+
+    /**
+     * Starts the run now.
+     */
+    public void start() {
+        start = System.nanoTime();
+    }
+
+    public boolean isStarted() {
+        return start != -1;
+    }
+
+    /**
+     * Returns true if the specified time lies within the measurement phase.
+     */
+    public boolean isMeasuring(long time) {
+        long s = start;
+        return s != -1 && time >= s + rampUp && time < s + rampUp + duration;
+    }
+
+    /**
+     * Returns true if the specified time lies after the end of the ramp-down
+     * phase.
+     */
+    public boolean isOver(long time) {
+        long s = start;
+        return s != -1 && time >= s + getLength();
+    }
+
+    /**
+     * Returns the length of the measurement phase in nanoseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the total length of the window in nanoseconds.
+     */
+    public long getLength() {
+        return rampUp + duration + rampDown;
+    }
+
+}
@@ -0,0 +1,103 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pacer determines when a worker issues its next operation. In closed-loop
+ * mode (rate 0) the next operation is issued as soon as the previous one has
+ * returned. In open-loop mode operations are scheduled at a fixed rate,
+ * independent of how long the previous operations took: acquire() blocks
+ * until the intended start time of the next operation and returns that time.
+ * If the system under test stalls, the worker falls behind schedule and
+ * issues the pending operations back-to-back. Measuring latencies from the
+ * intended rather than the actual start time thus accounts for the time the
+ * operations would have been queued (i.e. corrects coordinated omission).
+ */
+public class Pacer {
+
+    // interval between two operations in nanoseconds, 0 means closed-loop
+    private final long interval;
+    // delay of the first operation in nanoseconds
+    private final long initialDelay;
+    // intended start time of the next operation
+    private long next;
+    private boolean started;
+
+    /**
+     * Creates a closed-loop pacer.
+     */
+    public Pacer() {
+        this(0.0, 0L);
+    }
+
+    /**
+     * @param rate the number of operations per second, 0 for closed-loop
+     * @param initialDelay the delay of the first operation in nanoseconds
+     *            (used to spread the operations of several workers evenly)
+     */
+    public Pacer(double rate, long initialDelay) {
+        if (rate < 0.0) {
+            throw new IllegalArgumentException("Negative rate: " + rate);
+        }
+        this.interval = rate == 0.0 ? 0L
+                : Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.initialDelay = initialDelay;
+        reset();
+    }
+
+    /**
+     * Creates one of several open-loop pacers sharing a total rate. The start
+     * times of the pacers are staggered so that the operations are evenly
+     * spread over time.
+     *
+     * @param totalRate the total number of operations per second
+     * @param index the zero-based index of the pacer
+     * @param count the number of pacers sharing the total rate
+     */
+    public static Pacer share(double totalRate, int index, int count) {
+        if (totalRate == 0.0) {
+            return new Pacer();
+        }
+        double rate = totalRate / count;
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        return new Pacer(rate, interval * index / count);
+    }
+
+    public boolean isOpenLoop() {
+        return interval > 0;
+    }
+
+    /**
+     * Waits until the next operation is due.
+     *
+     * @return the intended start time of the operation (as returned by
+     *         System.nanoTime())
+     */
+    public long acquire() {
+        long now = System.nanoTime();
+        if (interval == 0) {
+            return now;
+        }
+        if (!started) {
+            next = now + initialDelay;
+            started = true;
+        }
+        long intended = next;
+        next += interval;
+        while (now < intended) {
+            LockSupport.parkNanos(intended - now);
+            now = System.nanoTime();
+        }
+        return intended;
+    }
+
+    /**
+     * Resets the schedule, the next call to acquire() starts a new one.
+     */
+    public void reset() {
+        started = false;
+        next = 0;
+    }
+
+}
@@ -1,22 +1,45 @@
 package ch.x42.terye.oak.mk.test;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.Parameterized.Parameters;
 import org.junit.runners.Suite;
 import org.junit.runners.model.FrameworkMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * JUnit test runner that executes one performance test runner for each of the
  * parameter arrays defined by the method annotated with
- * <code>@Parameters</code>.
+ * <code>@Parameters</code>. If the last parameter of the constructor of the
+ * test class is a Workload, the parameter arrays are crossed with the
+ * workloads defined for the test class (see Workload.expand()). After all
+ * runners are done, the throughput of runners only differing in the number of
+ * threads is analyzed (see ScalabilityModel), the latencies of runners only
+ * differing in the data size are tabulated, the latencies measured by
+ * calibration runners are compared to the ones of the other runners (see
+ * Calibration) and parameters implementing Closeable (e.g. fixtures holding
+ * data) are closed.
  */
 public class ParameterizedPerformanceTestRunner extends Suite {
 
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     // list of runners
     private List<Runner> runners;
 
@@ -25,6 +48,10 @@ public class ParameterizedPerformanceTestRunner extends Suite {
         super(klass, Collections.<Runner> emptyList());
         runners = new LinkedList<Runner>();
         List<Object[]> paramsList = getParametersList();
+        if (takesWorkload()) {
+            paramsList = crossWithWorkloads(paramsList,
+                    Workload.expand(klass));
+        }
         // create one performance test runner for each parameter list
         for (Object[] params : paramsList) {
             PerformanceTestRunner r = new PerformanceTestRunner(klass);
@@ -53,9 +80,354 @@ public class ParameterizedPerformanceTestRunner extends Suite {
         return (List<Object[]>) method.invokeExplosively(null);
     }
 
+    /**
+     * Returns true if the last parameter of the constructor of the test class
+     * is a workload.
+     */
+    private boolean takesWorkload() {
+        Class<?>[] types = getTestClass().getOnlyConstructor()
+                .getParameterTypes();
+        return types.length > 0
+                && Workload.class.equals(types[types.length - 1]);
+    }
+
+    /**
+     * Returns the list of parameter arrays obtained by appending each of the
+     * workloads to each of the parameter arrays.
+     */
+    private List<Object[]> crossWithWorkloads(List<Object[]> paramsList,
+            List<Workload> workloads) {
+        List<Object[]> crossed = new LinkedList<Object[]>();
+        for (Object[] params : paramsList) {
+            for (Workload workload : workloads) {
+                Object[] p = Arrays.copyOf(params, params.length + 1);
+                p[params.length] = workload;
+                crossed.add(p);
+            }
+        }
+        return crossed;
+    }
+
     @Override
     protected List<Runner> getChildren() {
         return runners;
     }
 
+    @Override
+    public void run(RunNotifier notifier) {
+        super.run(notifier);
+        logScalability();
+        logDataSizeScaling();
+        logCalibration();
+        logWarmup();
+        close();
+    }
+
+    /**
+     * Logs how long the warm-up phases took per fixture (the first parameter
+     * of the runners), how many invocations they needed and how many of them
+     * ended with a stationary throughput.
+     */
+    private void logWarmup() {
+        // fixture -> number of tests, warm-up runs, steady tests, duration
+        Map<String, long[]> fixtures = new LinkedHashMap<String, long[]>();
+        for (Runner runner : runners) {
+            PerformanceTestRunner r = (PerformanceTestRunner) runner;
+            Object[] params = r.getParameters();
+            String fixture = params == null || params.length == 0 ? ""
+                    : String.valueOf(params[0]);
+            for (Timer timer : r.getTimers().values()) {
+                long[] values = fixtures.get(fixture);
+                if (values == null) {
+                    values = new long[4];
+                    fixtures.put(fixture, values);
+                }
+                values[0]++;
+                values[1] += timer.getWarmupRuns();
+                values[2] += timer.isWarmupSteady() ? 1 : 0;
+                values[3] += timer.getWarmupDuration();
+            }
+        }
+        if (fixtures.isEmpty()) {
+            return;
+        }
+        logger.debug("-------------------------------------");
+        logger.debug("WARM-UP");
+        logger.debug("-------------------------------------");
+        String format = "%-24s %8s %8s %8s %12s %12s";
+        logger.debug(String.format(format, "fixture", "tests", "runs",
+                "steady", "total (s)", "mean (s)"));
+        for (Entry<String, long[]> entry : fixtures.entrySet()) {
+            long[] values = entry.getValue();
+            logger.debug(String.format(format, entry.getKey(), values[0],
+                    values[1], values[2], String.format("%.1f",
+                            values[3] / 1000.0), String.format("%.1f",
+                            values[3] / 1000.0 / values[0])));
+        }
+    }
+
+    /**
+     * For every runner having a calibration parameter, logs how much of the
+     * mean latency of each operation measured by the runners only differing
+     * in that parameter is overhead of the test itself.
+     */
+    private void logCalibration() {
+        // test name (without calibration parameter) -> calibration timer
+        Map<String, Timer> calibrations = new TreeMap<String, Timer>();
+        int index = -1;
+        for (Runner runner : runners) {
+            PerformanceTestRunner r = (PerformanceTestRunner) runner;
+            Object[] params = r.getParameters();
+            for (int i = 0; params != null && i < params.length; i++) {
+                if (params[i] instanceof Calibration) {
+                    index = i;
+                    for (Entry<String, Timer> entry : r.getTimers()
+                            .entrySet()) {
+                        calibrations.put(getName(entry.getKey(), params, i),
+                                entry.getValue());
+                    }
+                }
+            }
+        }
+        if (calibrations.isEmpty()) {
+            return;
+        }
+        String format = "%-24s %-20s %14s %14s %9s";
+        for (Runner runner : runners) {
+            PerformanceTestRunner r = (PerformanceTestRunner) runner;
+            Object[] params = r.getParameters();
+            if (params == null || params[index] instanceof Calibration) {
+                continue;
+            }
+            for (Entry<String, Timer> entry : r.getTimers().entrySet()) {
+                String name = getName(entry.getKey(), params, index);
+                Timer calibration = calibrations.get(name);
+                if (calibration == null) {
+                    continue;
+                }
+                logger.debug("-------------------------------------");
+                logger.debug("HARNESS OVERHEAD: " + name);
+                logger.debug("-------------------------------------");
+                logger.debug(String.format(format, "parameter", "operation",
+                        "harness (ms)", "measured (ms)", "overhead"));
+                for (Entry<String, Histogram> latencies : entry.getValue()
+                        .getLatencies().entrySet()) {
+                    Histogram harness = calibration.getLatencies().get(
+                            latencies.getKey());
+                    if (harness == null
+                            || latencies.getValue().getTotalCount() == 0) {
+                        continue;
+                    }
+                    double measured = latencies.getValue().getMean();
+                    logger.debug(String.format(format, params[index],
+                            latencies.getKey(),
+                            String.format("%.3f",
+                                    harness.getMean() / 1000000.0),
+                            String.format("%.3f", measured / 1000000.0),
+                            String.format("%.1f%%", measured == 0.0 ? 0.0
+                                    : 100.0 * harness.getMean() / measured)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of a test including all parameters except the one at
+     * the specified index.
+     */
+    private static String getName(String method, Object[] params, int index) {
+        String str = "";
+        for (int i = 0; i < params.length; i++) {
+            String param = params[i].toString();
+            if (i != index && !param.isEmpty()) {
+                str += (str.isEmpty() ? "" : ",") + param;
+            }
+        }
+        return str.isEmpty() ? method : method + " [parameters=" + str + "]";
+    }
+
+    /**
+     * Closes all distinct parameters implementing Closeable.
+     */
+    private void close() {
+        Set<Object> closed = Collections
+                .newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Runner runner : runners) {
+            Object[] params = ((PerformanceTestRunner) runner).getParameters();
+            if (params == null) {
+                continue;
+            }
+            for (Object param : params) {
+                if (param instanceof Closeable && closed.add(param)) {
+                    try {
+                        ((Closeable) param).close();
+                    } catch (IOException e) {
+                        logger.warn("Could not close " + param, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups the timers of the runners that only differ in the specified
+     * workload parameter by test name (without that parameter) and value of
+     * the parameter. Runners whose workload doesn't define the parameter are
+     * ignored.
+     */
+    private Map<String, SortedMap<Long, Timer>> groupBy(String key) {
+        // test name (without parameter) -> parameter value -> timer
+        Map<String, SortedMap<Long, Timer>> groups;
+        groups = new TreeMap<String, SortedMap<Long, Timer>>();
+        for (Runner runner : runners) {
+            PerformanceTestRunner r = (PerformanceTestRunner) runner;
+            if (r.getParameters() == null) {
+                continue;
+            }
+            long value = -1;
+            String params = "";
+            for (Object param : r.getParameters()) {
+                if (param instanceof Workload) {
+                    Workload workload = (Workload) param;
+                    value = workload.getLong(key, -1);
+                    Map<String, String> varied = new TreeMap<String, String>(
+                            workload.getVaried());
+                    varied.remove(key);
+                    params += varied.isEmpty() ? "" : "," + varied;
+                } else {
+                    params += "," + param;
+                }
+            }
+            if (value == -1) {
+                continue;
+            }
+            for (Entry<String, Timer> entry : r.getTimers().entrySet()) {
+                String name = entry.getKey();
+                if (!params.isEmpty()) {
+                    name += " [parameters=" + params.substring(1) + "]";
+                }
+                SortedMap<Long, Timer> timers = groups.get(name);
+                if (timers == null) {
+                    timers = new TreeMap<Long, Timer>();
+                    groups.put(name, timers);
+                }
+                timers.put(value, entry.getValue());
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Groups the runners that only differ in the number of threads and, for
+     * every group covering at least two thread counts, logs the throughput,
+     * speedup and efficiency at each thread count as well as the fitted
+     * scalability model.
+     */
+    private void logScalability() {
+        for (Entry<String, SortedMap<Long, Timer>> entry : groupBy(
+                Workload.KEY_THREADS).entrySet()) {
+            SortedMap<Integer, Double> points = new TreeMap<Integer, Double>();
+            for (Entry<Long, Timer> point : entry.getValue().entrySet()) {
+                points.put(point.getKey().intValue(), point.getValue()
+                        .getThroughput());
+            }
+            logScalability(entry.getKey(), points);
+        }
+    }
+
+    private void logScalability(String name,
+            SortedMap<Integer, Double> points) {
+        if (points.size() < 2 || points.containsValue(0.0)) {
+            return;
+        }
+        int[] concurrency = new int[points.size()];
+        double[] throughput = new double[points.size()];
+        int i = 0;
+        for (Entry<Integer, Double> point : points.entrySet()) {
+            concurrency[i] = point.getKey();
+            throughput[i] = point.getValue();
+            i++;
+        }
+        // throughput of a single thread (estimated if not measured)
+        double single = throughput[0] / concurrency[0];
+        logger.debug("-------------------------------------");
+        logger.debug("SCALABILITY: " + name);
+        logger.debug("-------------------------------------");
+        String format = "%8s %14s %10s %10s";
+        logger.debug(String.format(format, "threads", "ops/s", "speedup",
+                "efficiency"));
+        for (i = 0; i < concurrency.length; i++) {
+            double speedup = throughput[i] / single;
+            logger.debug(String.format(format, concurrency[i],
+                    String.format("%.1f", throughput[i]),
+                    String.format("%.2f", speedup),
+                    String.format("%.2f", speedup / concurrency[i])));
+        }
+        ScalabilityModel model = ScalabilityModel.fit(concurrency, throughput);
+        if (model == null) {
+            return;
+        }
+        logger.debug("Universal Scalability Law fit: " + model);
+        double peak = model.getPeakConcurrency();
+        if (Double.isInfinite(peak)) {
+            logger.debug("No throughput peak predicted (no coherency delay)");
+        } else {
+            logger.debug(String.format("Predicted peak: %.1f ops/s at %.1f "
+                    + "threads", model.getThroughput(peak), peak));
+        }
+    }
+
+    /**
+     * Groups the runners that only differ in the data size and, for every
+     * group covering at least two data sizes, logs the throughput and the
+     * mean and 99th percentile latency of every operation at each data size.
+     */
+    private void logDataSizeScaling() {
+        for (Entry<String, SortedMap<Long, Timer>> entry : groupBy(
+                Workload.KEY_DATA_SIZE).entrySet()) {
+            SortedMap<Long, Timer> timers = entry.getValue();
+            if (timers.size() < 2) {
+                continue;
+            }
+            // operation -> data size -> latencies
+            Map<String, SortedMap<Long, Histogram>> operations;
+            operations = new TreeMap<String, SortedMap<Long, Histogram>>();
+            for (Entry<Long, Timer> point : timers.entrySet()) {
+                for (Entry<String, Histogram> latencies : point.getValue()
+                        .getLatencies().entrySet()) {
+                    SortedMap<Long, Histogram> points = operations
+                            .get(latencies.getKey());
+                    if (points == null) {
+                        points = new TreeMap<Long, Histogram>();
+                        operations.put(latencies.getKey(), points);
+                    }
+                    points.put(point.getKey(), latencies.getValue());
+                }
+            }
+            logger.debug("-------------------------------------");
+            logger.debug("DATA SIZE SCALING: " + entry.getKey());
+            logger.debug("-------------------------------------");
+            String format = "%12s %14s";
+            logger.debug(String.format(format, "data size", "ops/s"));
+            for (Entry<Long, Timer> point : timers.entrySet()) {
+                logger.debug(String.format(format, point.getKey(),
+                        String.format("%.1f", point.getValue()
+                                .getThroughput())));
+            }
+            format = "%-24s %12s %10s %10s %10s";
+            logger.debug(String.format(format, "Operation latencies (ms)",
+                    "data size", "count", "mean", "p99"));
+            for (String operation : operations.keySet()) {
+                for (Entry<Long, Histogram> point : operations.get(operation)
+                        .entrySet()) {
+                    Histogram h = point.getValue();
+                    logger.debug(String.format(format, operation,
+                            point.getKey(), h.getTotalCount(),
+                            String.format("%.3f", h.getMean() / 1000000.0),
+                            String.format("%.3f", h
+                                    .getValueAtPercentile(99.0) / 1000000.0)));
+                }
+            }
+        }
+    }
 }
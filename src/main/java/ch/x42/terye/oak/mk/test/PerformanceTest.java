@@ -15,12 +15,48 @@ public @interface PerformanceTest {
 
     /**
      * The number of times the test should be executed in the warm-up phase.
+     * If steady-state detection is enabled (see maxWarmupRuns()), this is the
+     * minimum number of warm-up runs.
      */
     int nbWarmupRuns() default 0;
 
     /**
-     * The number of times the test should be executed.
+     * The maximum number of times the test is executed in the warm-up phase.
+     * Warm-up ends as soon as the throughput of the runs has become
+     * stationary, which can be detected after 6 runs at the earliest (two
+     * windows of 3 runs are compared). 0 (the default) disables steady-state
+     * detection. Can be overridden with the system property
+     * "mktest.maxWarmupRuns".
+     */
+    int maxWarmupRuns() default 0;
+
+    /**
+     * The number of times the test should be executed. If the runs are
+     * repeated until the confidence interval target is met (see ciWidth()),
+     * this is the minimum number of runs.
      */
     int nbRuns() default 1;
 
+    /**
+     * The maximum width of the confidence interval of the mean throughput (or
+     * execution time if the test records no operations) relative to the mean,
+     * e.g. 0.1 for +/- 5%. After nbRuns runs, the test is repeated until the
+     * target is met or maxRuns runs have been executed. 0 (the default)
+     * disables repeating runs. Can be overridden with the system property
+     * "mktest.ciWidth".
+     */
+    double ciWidth() default 0.0;
+
+    /**
+     * The maximum number of times the test is executed in order to meet the
+     * confidence interval target (see ciWidth()). Can be overridden with the
+     * system property "mktest.maxRuns".
+     */
+    int maxRuns() default 10;
+
+    /**
+     * The confidence level of the confidence intervals.
+     */
+    double confidence() default 0.95;
+
 }
\ No newline at end of file
@@ -1,7 +1,13 @@
 package ch.x42.terye.oak.mk.test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.junit.After;
 import org.junit.Before;
@@ -20,21 +26,62 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * JUnit test runner measuring test performance.
+ * JUnit test runner measuring test performance. The results of every test
+ * method are written to a result directory (see ResultStore) and compared
+ * against a baseline, if one is defined (see RegressionDetector). A
+ * regression makes the test fail. If enabled, the warm-up phase lasts until
+ * the throughput is stationary and test runs are repeated until the
+ * confidence interval of the mean throughput is narrow enough (see
+ * PerformanceTest).
  */
 public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
 
+    /**
+     * System property overriding the confidence interval target of all
+     * performance tests (see PerformanceTest.ciWidth()).
+     */
+    public static final String PROPERTY_CI_WIDTH = "mktest.ciWidth";
+
+    /**
+     * System property overriding the maximum number of runs of all
+     * performance tests (see PerformanceTest.maxRuns()).
+     */
+    public static final String PROPERTY_MAX_RUNS = "mktest.maxRuns";
+
+    /**
+     * System property overriding the maximum number of warm-up runs of all
+     * performance tests (see PerformanceTest.maxWarmupRuns()).
+     */
+    public static final String PROPERTY_MAX_WARMUP_RUNS =
+            "mktest.maxWarmupRuns";
+
+    /**
+     * System property defining the relative change of the throughput between
+     * two windows of warm-up runs that is tolerated by the steady-state
+     * detection (default 0.05).
+     */
+    public static final String PROPERTY_WARMUP_TOLERANCE =
+            "mktest.warmupTolerance";
+
+    // number of runs per window and significance level of the steady-state
+    // detection
+    private static final int WARMUP_WINDOW = 3;
+    private static final double WARMUP_ALPHA = 0.05;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     // performance test methods
     private List<FrameworkMethod> methods;
     // arguments that should be passed to the constructor of the test class
     private Object[] parameters;
+    // timers of the performance test methods that have been run
+    private Map<String, Timer> timers;
 
     public PerformanceTestRunner(Class<?> klass) throws InitializationError,
             InstantiationException, IllegalAccessException {
         super(klass);
         methods = new LinkedList<FrameworkMethod>();
+        timers = new LinkedHashMap<String, Timer>();
         // by default use no arguments
         parameters = null;
         // get all methods annotated with @PerformanceTest
@@ -53,6 +100,18 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
         this.parameters = parameters;
     }
 
+    public Object[] getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the timers of all performance test methods that have been run,
+     * keyed by method name.
+     */
+    public Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
     /**
      * We need to override this method since otherwise the validation fails as
      * computeTestMethods returns an empty list while calling the super
@@ -93,6 +152,7 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
         }
         // create statement
         Timer timer = new Timer();
+        timers.put(method.getName(), timer);
         Statement statement = createStatement(method, timer);
         // get the annotation
         PerformanceTest annotation = method
@@ -101,37 +161,70 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
                 description);
         eachNotifier.fireTestStarted();
         try {
-            // warm-up phase
-            int n = annotation.nbWarmupRuns();
-            if (n > 0) {
-                logger.debug("-------------------------------------");
-                logger.debug("WARMUP PHASE (" + n + " invocations):");
-                logger.debug("-------------------------------------");
-            }
-            for (int i = 0; i < n; i++) {
-                logger.debug("Test run " + (i + 1) + " of " + n);
-                statement.evaluate();
-                logger.debug("Execution time: " + timer.getLastDuration());
-            }
+            warmup(statement, timer, annotation);
             // test phase
             timer.reset();
-            n = annotation.nbRuns();
+            List<RunResult> runs = new ArrayList<RunResult>();
+            int n = annotation.nbRuns();
+            double ciWidth = getCiWidth(annotation);
+            int maxRuns = ciWidth > 0.0 ? Math.max(n, getMaxRuns(annotation))
+                    : n;
+            double confidence = annotation.confidence();
             logger.debug("-----------------------------------");
-            logger.debug("TEST PHASE (" + n + " invocations):");
+            if (maxRuns > n) {
+                logger.debug(String.format("TEST PHASE (%d to %d invocations, "
+                        + "target CI width: %.1f%%):", n, maxRuns,
+                        ciWidth * 100.0));
+            } else {
+                logger.debug("TEST PHASE (" + n + " invocations):");
+            }
             logger.debug("-----------------------------------");
-            for (int i = 0; i < n; i++) {
-                logger.debug("Test run " + (i + 1) + " of " + n);
+            for (int i = 0; i < maxRuns; i++) {
+                logger.debug("Test run " + (i + 1) + " of "
+                        + (maxRuns > n ? "at most " + maxRuns : n));
                 statement.evaluate();
+                runs.add(RunResult.of(timer));
                 logger.debug("Execution time: " + timer.getLastDuration());
+                logThroughput(timer.getLastThroughput(),
+                        timer.getTargetThroughput());
+                logLatencies(timer.getLastLatencies(),
+                        timer.getLastOperationsTime());
+                if (maxRuns > n && runs.size() > 1) {
+                    double width = getRelativeCiWidth(runs, confidence);
+                    logger.debug(String.format("Relative %.0f%% CI width of "
+                            + "the mean %s: %.1f%%", confidence * 100.0, runs
+                            .get(0).getPrimaryMetric(), width * 100.0));
+                    if (i + 1 >= n && width <= ciWidth) {
+                        break;
+                    }
+                }
             }
             logger.debug("--------");
             logger.debug("RESULTS:");
             logger.debug("--------");
-            logger.debug("Number of test runs: " + n);
+            logger.debug("Number of test runs: " + runs.size());
+            if (maxRuns > n) {
+                double width = getRelativeCiWidth(runs, confidence);
+                if (width > ciWidth) {
+                    logger.warn(String.format("Confidence interval target "
+                            + "not met after %d runs (%.1f%% instead of "
+                            + "%.1f%%)", runs.size(), width * 100.0,
+                            ciWidth * 100.0));
+                }
+            }
             logger.debug("Average execution time: "
                     + timer.getAverageDuration());
             logger.debug("Minimum execution time: " + timer.getMinDuration());
             logger.debug("Maximum execution time: " + timer.getMaxDuration());
+            logThroughput(timer.getThroughput(), timer.getTargetThroughput());
+            logLatencies(timer.getLatencies(), timer.getOperationsTime());
+            logConfidenceIntervals(runs, confidence);
+            List<String> regressions = storeResults(method, runs, timer,
+                    confidence);
+            if (!regressions.isEmpty()) {
+                throw new AssertionError("Performance regression against "
+                        + "baseline: " + regressions);
+            }
         } catch (AssumptionViolatedException e) {
             eachNotifier.addFailedAssumption(e);
         } catch (Throwable e) {
@@ -141,6 +234,188 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
         }
     }
 
+    /**
+     * Runs the warm-up phase of a test method. If steady-state detection is
+     * enabled (see PerformanceTest.maxWarmupRuns()), the test is invoked
+     * at least nbWarmupRuns times and until the throughput of the whole runs
+     * is stationary (see SteadyStateDetector) or the maximum number of
+     * warm-up runs is reached. Otherwise, the test is invoked nbWarmupRuns
+     * times.
+     */
+    private void warmup(Statement statement, Timer timer,
+            PerformanceTest annotation) throws Throwable {
+        int n = annotation.nbWarmupRuns();
+        int max = getIntProperty(PROPERTY_MAX_WARMUP_RUNS,
+                annotation.maxWarmupRuns());
+        SteadyStateDetector detector = null;
+        if (max > 0) {
+            if (max < 2 * WARMUP_WINDOW) {
+                logger.warn("Steady state cannot be detected in fewer than "
+                        + 2 * WARMUP_WINDOW + " warm-up runs, the maximum "
+                        + "number of warm-up runs is " + max);
+            }
+            detector = new SteadyStateDetector(WARMUP_WINDOW,
+                    getDoubleProperty(PROPERTY_WARMUP_TOLERANCE, 0.05),
+                    WARMUP_ALPHA);
+            max = Math.max(max, n);
+        } else {
+            max = n;
+        }
+        if (max > 0) {
+            logger.debug("-------------------------------------");
+            if (detector != null) {
+                logger.debug("WARMUP PHASE (until steady state, at least "
+                        + n + " and at most " + max + " invocations):");
+            } else {
+                logger.debug("WARMUP PHASE (" + n + " invocations):");
+            }
+            logger.debug("-------------------------------------");
+        }
+        long start = System.nanoTime();
+        boolean steady = false;
+        int i = 0;
+        while (i < max) {
+            logger.debug("Test run " + (i + 1) + " of "
+                    + (detector != null ? "at most " + max : n));
+            statement.evaluate();
+            i++;
+            logger.debug("Execution time: " + timer.getLastDuration());
+            if (detector == null) {
+                continue;
+            }
+            RunResult run = RunResult.of(timer);
+            detector.addSample(run.getPrimaryValue());
+            double change = detector.getChange();
+            logger.debug(String.format("Change of the %s between the last "
+                    + "windows of runs: %s", run.getPrimaryMetric(),
+                    Double.isNaN(change) ? "-" : String.format("%+.1f%%",
+                            change * 100.0)));
+            if (i >= n && detector.isSteady()) {
+                steady = true;
+                break;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        timer.setWarmup(nanos, i, steady);
+        if (detector != null) {
+            logger.debug("Warm-up took " + timer.getWarmupDuration()
+                    + " ms (" + i + " invocations), "
+                    + (steady ? "steady state reached"
+                            : "steady state not reached"));
+        }
+    }
+
+    /**
+     * Compares the results of a test method against the baseline, if any
+     * (see RegressionDetector), and then writes them to the result store, if
+     * enabled (see ResultStore). Failing to read or write result files is
+     * logged but does not make the test fail.
+     *
+     * @return the descriptions of the metrics that have regressed
+     */
+    private List<String> storeResults(FrameworkMethod method,
+            List<RunResult> runs, Timer timer, double confidence) {
+        String name = getTestClass().getJavaClass().getSimpleName() + "."
+                + testName(method);
+        List<String> regressions = Collections.emptyList();
+        RegressionDetector detector = RegressionDetector.create();
+        if (detector != null) {
+            try {
+                regressions = detector.compare(name, getWorkload(), runs);
+            } catch (IOException e) {
+                logger.warn("Could not compare " + name + " against "
+                        + "baseline", e);
+            }
+        }
+        ResultStore store = ResultStore.create();
+        if (store != null) {
+            try {
+                store.write(name, parameters, runs, timer, confidence);
+            } catch (IOException e) {
+                logger.warn("Could not write results of " + name, e);
+            }
+        }
+        return regressions;
+    }
+
+    private static double getCiWidth(PerformanceTest annotation) {
+        return getDoubleProperty(PROPERTY_CI_WIDTH, annotation.ciWidth());
+    }
+
+    private static int getMaxRuns(PerformanceTest annotation) {
+        return getIntProperty(PROPERTY_MAX_RUNS, annotation.maxRuns());
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double getDoubleProperty(String name,
+            double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Returns the width of the confidence interval of the mean of the primary
+     * metric of the runs (see RunResult.getPrimaryMetric()) relative to the
+     * mean.
+     */
+    private static double getRelativeCiWidth(List<RunResult> runs,
+            double confidence) {
+        double[] values = RunResult.getPrimaryValues(runs);
+        return 2.0 * Statistics.confidenceInterval(values, confidence)
+                / Math.abs(Statistics.mean(values));
+    }
+
+    /**
+     * Logs the mean and the confidence interval of every metric of the runs
+     * (see RunResult.getMetrics()) as well as the runs whose primary metric
+     * is an outlier.
+     */
+    private void logConfidenceIntervals(List<RunResult> runs,
+            double confidence) {
+        if (runs.size() < 2) {
+            return;
+        }
+        Map<String, double[]> samples = new LinkedHashMap<String, double[]>();
+        String primary = runs.get(0).getPrimaryMetric();
+        samples.put(primary, RunResult.getPrimaryValues(runs));
+        samples.putAll(RunResult.getSamples(RunResult.getMetrics(runs)));
+        String format = "%-32s %12s %12s %12s %9s";
+        logger.debug(String.format(format, String.format(
+                "Mean (%.0f%% CI)", confidence * 100.0), "mean", "low",
+                "high", "+/-"));
+        for (Entry<String, double[]> entry : samples.entrySet()) {
+            double mean = Statistics.mean(entry.getValue());
+            double ci = Statistics.confidenceInterval(entry.getValue(),
+                    confidence);
+            logger.debug(String.format(format, entry.getKey(), String.format(
+                    "%.3f", mean), String.format("%.3f", mean - ci), String
+                    .format("%.3f", mean + ci), String.format("%.1f%%", ci
+                    / Math.abs(mean) * 100.0)));
+        }
+        double[] values = samples.get(primary);
+        double median = Statistics.median(values);
+        for (int i : Statistics.outliers(values)) {
+            logger.warn(String.format("Run %d is an outlier: %s %.3f "
+                    + "(median: %.3f)", i + 1, primary, values[i], median));
+        }
+    }
+
+    /**
+     * Returns the workload among the parameters, or null if there is none.
+     */
+    private Workload getWorkload() {
+        for (int i = 0; parameters != null && i < parameters.length; i++) {
+            if (parameters[i] instanceof Workload) {
+                return (Workload) parameters[i];
+            }
+        }
+        return null;
+    }
+
     /**
      * This method is copied from super.methodBlock but uses a custom
      * InvokeMethod class to measure the execution time of the test method.
@@ -160,6 +435,9 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
         } catch (Throwable e) {
             return new Fail(e);
         }
+        if (test instanceof TimerAware) {
+            ((TimerAware) test).setTimer(timer);
+        }
         Statement statement = new TimedInvokeMethod(method, test, timer);
         statement = possiblyExpectingExceptions(method, test, statement);
         statement = withPotentialTimeout(method, test, statement);
@@ -169,19 +447,76 @@ public class PerformanceTestRunner extends BlockJUnit4ClassRunner {
         return statement;
     }
 
+    /**
+     * Logs the achieved throughput and, if a target has been set, how it
+     * compares to the targeted throughput.
+     */
+    private void logThroughput(double throughput, double target) {
+        if (throughput == 0.0) {
+            return;
+        }
+        String str = String.format("Throughput: %.1f ops/s", throughput);
+        if (target > 0.0) {
+            str += String.format(" (target: %.1f ops/s, achieved: %.1f%%)",
+                    target, throughput / target * 100.0);
+        }
+        logger.debug(str);
+    }
+
+    /**
+     * Logs a table containing the count, the throughput and the latency
+     * percentiles (in milliseconds) of every operation recorded by the timer.
+     *
+     * @param nanos the time spent performing the operations, 0 if unknown
+     */
+    private void logLatencies(Map<String, Histogram> latencies, long nanos) {
+        if (latencies.isEmpty()) {
+            return;
+        }
+        // the first column is as wide as the longest operation name
+        int width = 24;
+        for (String operation : latencies.keySet()) {
+            width = Math.max(width, operation.length());
+        }
+        String format = "%-" + width
+                + "s %10s %10s %10s %10s %10s %10s %10s %10s";
+        logger.debug(String.format(format, "Operation latencies (ms)",
+                "count", "ops/s", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (Entry<String, Histogram> entry : latencies.entrySet()) {
+            Histogram h = entry.getValue();
+            String throughput = nanos == 0 ? "-" : String.format("%.1f",
+                    h.getTotalCount() / (nanos / 1000000000.0));
+            logger.debug(String.format(format, entry.getKey(),
+                    h.getTotalCount(), throughput, toMillis(h.getMean()),
+                    toMillis(h.getValueAtPercentile(50.0)),
+                    toMillis(h.getValueAtPercentile(90.0)),
+                    toMillis(h.getValueAtPercentile(99.0)),
+                    toMillis(h.getValueAtPercentile(99.9)),
+                    toMillis(h.getMax())));
+        }
+    }
+
+    private static String toMillis(double nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
     private String getParameterString() {
         if (parameters == null) {
             return "";
         }
-        String str = " [parameters=";
+        String str = "";
         for (int i = 0; i < parameters.length; i++) {
-            str += parameters[i].toString();
-            if (i + 1 < parameters.length) {
+            // skip parameters without description (e.g. default workloads)
+            String param = parameters[i].toString();
+            if (param.isEmpty()) {
+                continue;
+            }
+            if (!str.isEmpty()) {
                 str += ",";
             }
+            str += param;
         }
-        str += "]";
-        return str;
+        return " [parameters=" + str + "]";
     }
 
     @Override
@@ -0,0 +1,162 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the results of a test against the results of the same test stored
+ * in a baseline directory (i.e. a copy of the result directory of an earlier
+ * execution, see ResultStore). The throughput and the mean latency of every
+ * operation of the test runs are compared using a one-sided Welch's t-test:
+ * a metric has regressed if it is worse than the baseline by more than the
+ * regression threshold and the difference is significant at level alpha.
+ * This requires at least two runs in both the baseline and the current
+ * results.
+ */
+public class RegressionDetector {
+
+    /**
+     * System property defining the baseline directory. If not set, no
+     * comparison takes place.
+     */
+    public static final String PROPERTY_BASELINE = "mktest.baseline";
+
+    /**
+     * System property defining the significance level (default 0.01).
+     */
+    public static final String PROPERTY_ALPHA = "mktest.alpha";
+
+    /**
+     * System property defining the minimum relative change of a metric that
+     * counts as regression (default 0.05, i.e. 5%), so that statistically
+     * significant but negligible changes are tolerated.
+     */
+    public static final String PROPERTY_THRESHOLD =
+            "mktest.regressionThreshold";
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(RegressionDetector.class);
+
+    private final File baseline;
+    private final double alpha;
+    private final double threshold;
+
+    public RegressionDetector(File baseline, double alpha, double threshold) {
+        this.baseline = baseline;
+        this.alpha = alpha;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the regression detector defined by the system properties, or
+     * null if no baseline is defined.
+     */
+    public static RegressionDetector create() {
+        String path = System.getProperty(PROPERTY_BASELINE, "").trim();
+        if (path.isEmpty()) {
+            return null;
+        }
+        return new RegressionDetector(new File(path), Double.parseDouble(
+                System.getProperty(PROPERTY_ALPHA, "0.01")),
+                Double.parseDouble(System.getProperty(PROPERTY_THRESHOLD,
+                        "0.05")));
+    }
+
+    /**
+     * Compares the results of the specified test against the baseline, logs
+     * the comparison and returns a description of every regressed metric.
+     *
+     * @param test the name of the test (including its parameters)
+     * @param workload the workload of the test (may be null)
+     * @param runs the results of the test runs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> compare(String test, Workload workload,
+            List<RunResult> runs) throws IOException {
+        List<String> regressions = new ArrayList<String>();
+        File file = new File(baseline, ResultStore.getFileName(test));
+        if (!file.exists()) {
+            logger.debug("No baseline for " + test);
+            return regressions;
+        }
+        Map<String, Object> json = ResultStore.read(file);
+        Map<String, Object> values = new TreeMap<String, Object>();
+        if (workload != null) {
+            values.putAll(workload.getValues());
+        }
+        Map<String, Object> expected = new TreeMap<String, Object>(
+                (Map<String, Object>) json.get("workload"));
+        if (!values.equals(expected)) {
+            logger.warn("Not comparing " + test + " against baseline, the "
+                    + "workloads differ: " + values + " vs. " + expected);
+            return regressions;
+        }
+
+        // metric -> samples
+        Map<String, double[]> current = RunResult.getSamples(RunResult
+                .getMetrics(runs));
+        List<Map<String, Double>> metrics;
+        metrics = new ArrayList<Map<String, Double>>();
+        for (Object run : (List<Object>) json.get("runs")) {
+            metrics.add(RunResult.getMetrics((Map<String, Object>) run));
+        }
+        Map<String, double[]> previous = RunResult.getSamples(metrics);
+
+        logger.debug("-------------------------------------");
+        logger.debug("BASELINE COMPARISON: " + test);
+        logger.debug("-------------------------------------");
+        logger.debug("Baseline: " + file + ", revision "
+                + ((Map<String, Object>) json.get("environment"))
+                        .get("revision"));
+        String format = "%-32s %12s %12s %9s %9s  %s";
+        logger.debug(String.format(format, "metric", "baseline", "current",
+                "change", "p-value", ""));
+        for (Entry<String, double[]> entry : current.entrySet()) {
+            String metric = entry.getKey();
+            double[] b = previous.get(metric);
+            double[] c = entry.getValue();
+            if (b == null || b.length < 2 || c.length < 2) {
+                logger.debug(String.format(format, metric, b == null ? "-"
+                        : String.format("%.3f", Statistics.mean(b)), String
+                        .format("%.3f", Statistics.mean(c)), "", "",
+                        "(not enough runs)"));
+                continue;
+            }
+            double baselineMean = Statistics.mean(b);
+            double currentMean = Statistics.mean(c);
+            double change = (currentMean - baselineMean) / baselineMean;
+            boolean higherIsBetter = metric
+                    .equals(RunResult.METRIC_THROUGHPUT);
+            // p-values of the metric having become worse, resp. better
+            double pWorse = higherIsBetter ? Statistics.welchTest(c, b)
+                    : Statistics.welchTest(b, c);
+            double pBetter = higherIsBetter ? Statistics.welchTest(b, c)
+                    : Statistics.welchTest(c, b);
+            double worse = higherIsBetter ? -change : change;
+            String verdict = "";
+            double p = Math.min(pWorse, pBetter);
+            if (pWorse < alpha && worse > threshold) {
+                verdict = "REGRESSION";
+                regressions.add(String.format("%s: %.3f -> %.3f (%+.1f%%, "
+                        + "p=%.4f)", metric, baselineMean, currentMean,
+                        change * 100.0, pWorse));
+            } else if (pBetter < alpha && -worse > threshold) {
+                verdict = "improvement";
+            }
+            logger.debug(String.format(format, metric, String.format("%.3f",
+                    baselineMean), String.format("%.3f", currentMean), String
+                    .format("%+.1f%%", change * 100.0), String.format("%.4f",
+                    p), verdict));
+        }
+        return regressions;
+    }
+
+}
@@ -0,0 +1,342 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.jackrabbit.mk.json.JsopBuilder;
+import org.apache.jackrabbit.mk.json.JsopReader;
+import org.apache.jackrabbit.mk.json.JsopTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the results of performance tests to a directory. For every test
+ * (i.e. test method and set of parameters), a JSON file is written holding
+ * the parameters, the workload, the environment (see Environment), the
+ * duration of the warm-up phase, the results of every test run, the
+ * confidence intervals of the metrics and the latency histograms of all runs.
+ * The file is named after the test (see getFileName()) and overwritten by
+ * later executions of the same test, so that a copy of the directory can
+ * serve as baseline (see RegressionDetector). In addition, one line per run
+ * and operation is appended to a CSV file (CSV_FILE) for use in
+ * spreadsheets.
+ */
+public class ResultStore {
+
+    /**
+     * System property defining the directory the results are written to
+     * (default is "target/mktest-results"). An empty value disables writing
+     * the results.
+     */
+    public static final String PROPERTY_RESULTS = "mktest.results";
+
+    public static final String CSV_FILE = "results.csv";
+
+    private static final String CSV_HEADER = "timestamp,test,parameters,"
+            + "fixture,run,operation,count,throughput,mean,p50,p90,p99,"
+            + "p99.9,max";
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(ResultStore.class);
+
+    private final File directory;
+
+    public ResultStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the result store defined by the system properties, or null if
+     * writing the results is disabled.
+     */
+    public static ResultStore create() {
+        String path = System.getProperty(PROPERTY_RESULTS,
+                "target/mktest-results").trim();
+        if (path.isEmpty()) {
+            return null;
+        }
+        return new ResultStore(new File(path));
+    }
+
+    /**
+     * Returns the name of the result file of the specified test.
+     */
+    public static String getFileName(String test) {
+        String name = test.replaceAll("[^A-Za-z0-9.,=+-]+", "_");
+        name = name.replaceAll("^_+|_+$", "");
+        return name + ".json";
+    }
+
+    /**
+     * Writes the results of a test.
+     *
+     * @param test the name of the test (including its parameters)
+     * @param parameters the parameters of the test class, may be null
+     * @param runs the results of the test runs
+     * @param timer the timer of the test, holding the latencies of all test
+     *            runs and the results of the warm-up phase
+     * @param confidence the confidence level of the confidence intervals
+     * @return the JSON representation written
+     */
+    public Map<String, Object> write(String test, Object[] parameters,
+            List<RunResult> runs, Timer timer, double confidence)
+            throws IOException {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("test", test);
+        List<String> params = new ArrayList<String>();
+        Map<String, String> workload = new LinkedHashMap<String, String>();
+        for (int i = 0; parameters != null && i < parameters.length; i++) {
+            if (parameters[i] instanceof Workload) {
+                workload.putAll(((Workload) parameters[i]).getValues());
+            } else {
+                params.add(String.valueOf(parameters[i]));
+            }
+        }
+        json.put("parameters", params);
+        json.put("fixture", params.isEmpty() ? null : params.get(0));
+        json.put("workload", workload);
+        json.put("environment", Environment.get());
+        Map<String, Object> warmup = new LinkedHashMap<String, Object>();
+        warmup.put("runs", timer.getWarmupRuns());
+        warmup.put("duration", timer.getWarmupDuration());
+        warmup.put("steady", timer.isWarmupSteady());
+        json.put("warmup", warmup);
+        List<Object> list = new ArrayList<Object>();
+        List<Integer> outliers = Statistics.outliers(RunResult
+                .getPrimaryValues(runs));
+        for (int i = 0; i < runs.size(); i++) {
+            Map<String, Object> run = runs.get(i).toJson();
+            run.put("outlier", outliers.contains(i));
+            list.add(run);
+        }
+        json.put("runs", list);
+        json.put("confidence", confidence);
+        json.put("confidenceIntervals", getConfidenceIntervals(runs,
+                confidence));
+        Map<String, Object> total = new LinkedHashMap<String, Object>();
+        for (Entry<String, Histogram> entry : timer.getLatencies()
+                .entrySet()) {
+            total.put(entry.getKey(), RunResult.toJson(entry.getValue(), true));
+        }
+        json.put("latencies", total);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        JsopBuilder str = new JsopBuilder();
+        toJson(str, json);
+        File file = new File(directory, getFileName(test));
+        write(file, str.toString() + '\n', false);
+        writeCsv(test, params, runs);
+        logger.debug("Results written to " + file);
+        return json;
+    }
+
+    /**
+     * Returns the mean and the bounds of the confidence interval of every
+     * metric of the runs.
+     */
+    private static Map<String, Object> getConfidenceIntervals(
+            List<RunResult> runs, double confidence) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        if (runs.size() < 2) {
+            return json;
+        }
+        Map<String, double[]> samples = new LinkedHashMap<String, double[]>();
+        samples.put(runs.get(0).getPrimaryMetric(), RunResult
+                .getPrimaryValues(runs));
+        samples.putAll(RunResult.getSamples(RunResult.getMetrics(runs)));
+        for (Entry<String, double[]> entry : samples.entrySet()) {
+            double mean = Statistics.mean(entry.getValue());
+            double ci = Statistics.confidenceInterval(entry.getValue(),
+                    confidence);
+            Map<String, Object> interval = new LinkedHashMap<String, Object>();
+            interval.put("mean", mean);
+            interval.put("low", mean - ci);
+            interval.put("high", mean + ci);
+            json.put(entry.getKey(), interval);
+        }
+        return json;
+    }
+
+    private void writeCsv(String test, List<String> params,
+            List<RunResult> runs) throws IOException {
+        File file = new File(directory, CSV_FILE);
+        StringBuilder csv = new StringBuilder();
+        if (!file.exists()) {
+            csv.append(CSV_HEADER).append('\n');
+        }
+        String timestamp = (String) Environment.get().get("timestamp");
+        String prefix = timestamp + "," + quote(test) + ","
+                + quote(join(params)) + ","
+                + quote(params.isEmpty() ? "" : params.get(0)) + ",";
+        for (int i = 0; i < runs.size(); i++) {
+            RunResult run = runs.get(i);
+            for (Entry<String, Histogram> entry : run.getLatencies()
+                    .entrySet()) {
+                Histogram h = entry.getValue();
+                csv.append(prefix).append(i + 1).append(',');
+                csv.append(quote(entry.getKey())).append(',');
+                csv.append(h.getTotalCount()).append(',');
+                csv.append(String.format("%.3f", run.getThroughput()));
+                csv.append(',').append(toMillis(h.getMean()));
+                csv.append(',').append(toMillis(h.getValueAtPercentile(50.0)));
+                csv.append(',').append(toMillis(h.getValueAtPercentile(90.0)));
+                csv.append(',').append(toMillis(h.getValueAtPercentile(99.0)));
+                csv.append(',').append(toMillis(h.getValueAtPercentile(99.9)));
+                csv.append(',').append(toMillis(h.getMax())).append('\n');
+            }
+        }
+        write(file, csv.toString(), true);
+    }
+
+    private static String toMillis(double nanos) {
+        return String.format("%.6f", nanos / 1000000.0);
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder str = new StringBuilder();
+        for (String value : values) {
+            if (value.isEmpty()) {
+                continue;
+            }
+            str.append(str.length() > 0 ? ";" : "").append(value);
+        }
+        return str.toString();
+    }
+
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Writes the JSON representation of a value: maps (objects), lists and
+     * arrays of longs (arrays), strings, numbers, booleans and null. Numbers
+     * that are not finite are written as null.
+     */
+    @SuppressWarnings("unchecked")
+    private static void toJson(JsopBuilder json, Object value) {
+        if (value instanceof Map) {
+            json.object();
+            for (Entry<String, Object> entry : ((Map<String, Object>) value)
+                    .entrySet()) {
+                json.key(entry.getKey());
+                toJson(json, entry.getValue());
+            }
+            json.endObject();
+        } else if (value instanceof Iterable) {
+            json.array();
+            for (Object element : (Iterable<Object>) value) {
+                toJson(json, element);
+            }
+            json.endArray();
+        } else if (value instanceof long[]) {
+            json.array();
+            for (long element : (long[]) value) {
+                json.value(element);
+            }
+            json.endArray();
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            json.encodedValue(Double.isNaN(d) || Double.isInfinite(d) ? "null"
+                    : Double.toString(d));
+        } else if (value instanceof Number) {
+            json.value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            json.value(((Boolean) value).booleanValue());
+        } else {
+            json.value(value == null ? null : value.toString());
+        }
+    }
+
+    /**
+     * Reads a JSON value into maps (objects), lists (arrays), strings,
+     * doubles (numbers), booleans and null.
+     */
+    private static Object fromJson(JsopTokenizer json) {
+        if (json.matches('{')) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            if (!json.matches('}')) {
+                do {
+                    String key = json.read(JsopReader.STRING);
+                    json.read(':');
+                    map.put(key, fromJson(json));
+                } while (json.matches(','));
+                json.read('}');
+            }
+            return map;
+        } else if (json.matches('[')) {
+            List<Object> list = new ArrayList<Object>();
+            if (!json.matches(']')) {
+                do {
+                    list.add(fromJson(json));
+                } while (json.matches(','));
+                json.read(']');
+            }
+            return list;
+        } else if (json.matches(JsopReader.NULL)) {
+            return null;
+        } else if (json.matches(JsopReader.TRUE)) {
+            return Boolean.TRUE;
+        } else if (json.matches(JsopReader.FALSE)) {
+            return Boolean.FALSE;
+        } else if (json.getTokenType() == JsopReader.NUMBER) {
+            return Double.valueOf(json.read(JsopReader.NUMBER));
+        }
+        return json.read(JsopReader.STRING);
+    }
+
+    private static void write(File file, String str, boolean append)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file,
+                append), "UTF-8");
+        try {
+            writer.write(str);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads a result file written by a result store.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int n = 0;
+            while (n < data.length) {
+                int read = in.read(data, n, data.length - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+            JsopTokenizer json = new JsopTokenizer(new String(data, 0, n,
+                    "UTF-8"));
+            Object value = fromJson(json);
+            json.read(JsopReader.END);
+            return (Map<String, Object>) value;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid result file " + file + ": "
+                    + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The results of a single test run: its duration, the throughput achieved
+ * and the latencies of the operations performed.
+ */
+public class RunResult {
+
+    /**
+     * Name of the throughput metric (see getMetrics()).
+     */
+    public static final String METRIC_THROUGHPUT = "throughput";
+
+    /**
+     * Name of the execution time metric (see getPrimaryMetric()).
+     */
+    public static final String METRIC_DURATION = "execution time (ms)";
+
+    // in nanoseconds
+    private final long duration;
+    // operations per second, 0 if no operations have been recorded
+    private final double throughput;
+    private final Map<String, Histogram> latencies;
+
+    public RunResult(long duration, double throughput,
+            Map<String, Histogram> latencies) {
+        this.duration = duration;
+        this.throughput = throughput;
+        this.latencies = new TreeMap<String, Histogram>();
+        for (Entry<String, Histogram> entry : latencies.entrySet()) {
+            this.latencies.put(entry.getKey(), entry.getValue().copy());
+        }
+    }
+
+    /**
+     * Returns the results of the last invocation measured by the specified
+     * timer.
+     */
+    public static RunResult of(Timer timer) {
+        return new RunResult(timer.getLastDurationNanos(),
+                timer.getLastThroughput(), timer.getLastLatencies());
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public Map<String, Histogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Returns the name of the metric the precision of repeated runs is
+     * estimated on: the throughput or, if no operations have been recorded,
+     * the execution time.
+     */
+    public String getPrimaryMetric() {
+        return throughput > 0.0 ? METRIC_THROUGHPUT : METRIC_DURATION;
+    }
+
+    /**
+     * Returns the value of the primary metric of this run (see
+     * getPrimaryMetric()).
+     */
+    public double getPrimaryValue() {
+        return throughput > 0.0 ? throughput : duration / 1000000.0;
+    }
+
+    /**
+     * Returns the name of the metric of the mean latency of the specified
+     * operation.
+     */
+    public static String getLatencyMetric(String operation) {
+        return operation + " (mean ms)";
+    }
+
+    /**
+     * Returns the metrics of this run that are compared against a baseline:
+     * the throughput (if any) and the mean latency in milliseconds of every
+     * operation.
+     */
+    public Map<String, Double> getMetrics() {
+        Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        if (throughput > 0.0) {
+            metrics.put(METRIC_THROUGHPUT, throughput);
+        }
+        for (Entry<String, Histogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) {
+                metrics.put(getLatencyMetric(entry.getKey()), entry.getValue()
+                        .getMean() / 1000000.0);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of a run read from a result file (see toJson()).
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Double> getMetrics(Map<String, Object> json) {
+        Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        Double throughput = (Double) json.get("throughput");
+        if (throughput != null && throughput > 0.0) {
+            metrics.put(METRIC_THROUGHPUT, throughput);
+        }
+        Map<String, Object> operations = (Map<String, Object>) json
+                .get("operations");
+        if (operations != null) {
+            for (Entry<String, Object> entry : operations.entrySet()) {
+                Map<String, Object> summary = (Map<String, Object>) entry
+                        .getValue();
+                if ((Double) summary.get("count") > 0) {
+                    metrics.put(getLatencyMetric(entry.getKey()),
+                            (Double) summary.get("mean") / 1000000.0);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the JSON representation of this run (latencies in
+     * nanoseconds).
+     */
+    public Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("duration", duration);
+        json.put("throughput", throughput);
+        Map<String, Object> operations = new LinkedHashMap<String, Object>();
+        for (Entry<String, Histogram> entry : latencies.entrySet()) {
+            operations.put(entry.getKey(), toJson(entry.getValue(), false));
+        }
+        json.put("operations", operations);
+        return json;
+    }
+
+    /**
+     * Returns the JSON representation of the summary of a histogram and,
+     * optionally, the counts of all non-empty buckets as pairs of the lowest
+     * value of the bucket and the count.
+     */
+    public static Map<String, Object> toJson(Histogram h, boolean buckets) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("count", h.getTotalCount());
+        json.put("mean", h.getMean());
+        json.put("min", h.getMin());
+        json.put("p50", h.getValueAtPercentile(50.0));
+        json.put("p90", h.getValueAtPercentile(90.0));
+        json.put("p99", h.getValueAtPercentile(99.0));
+        json.put("p99.9", h.getValueAtPercentile(99.9));
+        json.put("max", h.getMax());
+        if (buckets) {
+            json.put("buckets", h.getBuckets());
+        }
+        return json;
+    }
+
+    /**
+     * Returns the values of the primary metric of every run (see
+     * getPrimaryValue()).
+     */
+    public static double[] getPrimaryValues(List<RunResult> runs) {
+        double[] values = new double[runs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = runs.get(i).getPrimaryValue();
+        }
+        return values;
+    }
+
+    /**
+     * Returns the metrics of every run (see getMetrics()).
+     */
+    public static List<Map<String, Double>> getMetrics(List<RunResult> runs) {
+        List<Map<String, Double>> metrics;
+        metrics = new ArrayList<Map<String, Double>>();
+        for (RunResult run : runs) {
+            metrics.add(run.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the samples of every metric measured in all of the specified
+     * runs (metric -> values).
+     */
+    public static Map<String, double[]> getSamples(
+            List<Map<String, Double>> runs) {
+        Map<String, double[]> samples = new LinkedHashMap<String, double[]>();
+        if (runs.isEmpty()) {
+            return samples;
+        }
+        for (String metric : runs.get(0).keySet()) {
+            double[] values = new double[runs.size()];
+            boolean complete = true;
+            for (int i = 0; i < values.length; i++) {
+                Double value = runs.get(i).get(metric);
+                if (value == null) {
+                    complete = false;
+                    break;
+                }
+                values[i] = value;
+            }
+            if (complete) {
+                samples.put(metric, values);
+            }
+        }
+        return samples;
+    }
+
+}
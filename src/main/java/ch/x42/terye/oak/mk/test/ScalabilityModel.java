@@ -0,0 +1,120 @@
+package ch.x42.terye.oak.mk.test;
+
+/**
+ * Universal Scalability Law model fitted to throughput measurements taken at
+ * different numbers of concurrent clients. The model describes the throughput
+ * at concurrency N as
+ * 
+ * <pre>
+ * X(N) = lambda * N / (1 + sigma * (N - 1) + kappa * N * (N - 1))
+ * </pre>
+ * 
+ * where lambda is the throughput of a single client, sigma the contention
+ * (serialization) coefficient and kappa the coherency (crosstalk) coefficient.
+ * With kappa &gt; 0 the throughput peaks at N* = sqrt((1 - sigma) / kappa) and
+ * decreases beyond.
+ */
+public class ScalabilityModel {
+
+    private final double lambda;
+    private final double sigma;
+    private final double kappa;
+
+    public ScalabilityModel(double lambda, double sigma, double kappa) {
+        this.lambda = lambda;
+        this.sigma = sigma;
+        this.kappa = kappa;
+    }
+
+    /**
+     * Fits the model to the specified measurements using least squares.
+     * Dividing the model by lambda * N gives a polynomial that is linear in
+     * sigma and kappa: N / C(N) - 1 = sigma * (N - 1) + kappa * N * (N - 1),
+     * where C(N) = X(N) / lambda is the relative capacity.
+     * 
+     * @param concurrency the concurrency levels (at least two distinct ones)
+     * @param throughput the throughput measured at each concurrency level
+     * @return the model or null if the measurements are not sufficient
+     */
+    public static ScalabilityModel fit(int[] concurrency, double[] throughput) {
+        // estimate lambda from the lowest concurrency level
+        int lowest = 0;
+        for (int i = 1; i < concurrency.length; i++) {
+            if (concurrency[i] < concurrency[lowest]) {
+                lowest = i;
+            }
+        }
+        double lambda = throughput[lowest] / concurrency[lowest];
+        if (lambda <= 0.0) {
+            return null;
+        }
+        // solve the normal equations of the linear least squares problem
+        double sxx = 0.0, sxz = 0.0, szz = 0.0, sxy = 0.0, szy = 0.0;
+        for (int i = 0; i < concurrency.length; i++) {
+            double n = concurrency[i];
+            if (throughput[i] <= 0.0) {
+                continue;
+            }
+            double y = n / (throughput[i] / lambda) - 1.0;
+            double x = n - 1.0;
+            double z = n * (n - 1.0);
+            sxx += x * x;
+            sxz += x * z;
+            szz += z * z;
+            sxy += x * y;
+            szy += z * y;
+        }
+        double det = sxx * szz - sxz * sxz;
+        if (det == 0.0) {
+            // only one concurrency level greater than one, contention only
+            if (sxx == 0.0) {
+                return null;
+            }
+            return new ScalabilityModel(lambda, sxy / sxx, 0.0);
+        }
+        double sigma = (sxy * szz - szy * sxz) / det;
+        double kappa = (szy * sxx - sxy * sxz) / det;
+        return new ScalabilityModel(lambda, sigma, kappa);
+    }
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public double getKappa() {
+        return kappa;
+    }
+
+    /**
+     * Returns the throughput predicted by the model at the specified
+     * concurrency.
+     */
+    public double getThroughput(double n) {
+        return lambda * n / (1.0 + sigma * (n - 1.0) + kappa * n * (n - 1.0));
+    }
+
+    /**
+     * Returns the concurrency at which the throughput peaks, or infinity if
+     * the throughput does not peak.
+     */
+    public double getPeakConcurrency() {
+        if (sigma >= 1.0) {
+            return 1.0;
+        }
+        if (kappa <= 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt((1.0 - sigma) / kappa);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lambda=%.2f ops/s, sigma=%.4f, kappa=%.6f",
+                lambda, sigma, kappa);
+    }
+
+}
@@ -0,0 +1,227 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistical functions used to analyze the samples of several test runs.
+ */
+public class Statistics {
+
+    private static final double EPSILON = 1e-12;
+    private static final int MAX_ITERATIONS = 300;
+
+    private Statistics() {
+    }
+
+    public static double mean(double[] samples) {
+        double sum = 0.0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    /**
+     * Returns the (unbiased) sample variance.
+     */
+    public static double variance(double[] samples) {
+        if (samples.length < 2) {
+            return 0.0;
+        }
+        double mean = mean(samples);
+        double sum = 0.0;
+        for (double sample : samples) {
+            sum += (sample - mean) * (sample - mean);
+        }
+        return sum / (samples.length - 1);
+    }
+
+    public static double median(double[] samples) {
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        if (sorted.length % 2 == 1) {
+            return sorted[middle];
+        }
+        return (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    /**
+     * Returns the half-width of the confidence interval of the mean of the
+     * samples at the specified confidence level (e.g. 0.95), assuming a
+     * normally distributed population. Returns infinity if there are fewer
+     * than two samples.
+     */
+    public static double confidenceInterval(double[] samples,
+            double confidence) {
+        if (samples.length < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double t = tQuantile(0.5 + confidence / 2.0, samples.length - 1);
+        return t * Math.sqrt(variance(samples) / samples.length);
+    }
+
+    /**
+     * Returns the indices of the outliers among the samples. A sample is an
+     * outlier if its modified z-score (based on the median absolute
+     * deviation) exceeds 3.5, which unlike the standard deviation is not
+     * inflated by the outliers themselves.
+     */
+    public static List<Integer> outliers(double[] samples) {
+        List<Integer> outliers = new ArrayList<Integer>();
+        if (samples.length < 3) {
+            return outliers;
+        }
+        double median = median(samples);
+        double[] deviations = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            deviations[i] = Math.abs(samples[i] - median);
+        }
+        double mad = median(deviations);
+        if (mad == 0.0) {
+            return outliers;
+        }
+        for (int i = 0; i < samples.length; i++) {
+            if (0.6745 * deviations[i] / mad > 3.5) {
+                outliers.add(i);
+            }
+        }
+        return outliers;
+    }
+
+    /**
+     * Performs a one-sided Welch's t-test and returns the probability of
+     * observing a difference of the means at least as large as the one
+     * observed if the mean of the population of b were not greater than the
+     * one of a (p-value). Both samples need at least two values.
+     */
+    public static double welchTest(double[] a, double[] b) {
+        if (a.length < 2 || b.length < 2) {
+            throw new IllegalArgumentException("At least two samples needed");
+        }
+        double va = variance(a) / a.length;
+        double vb = variance(b) / b.length;
+        double difference = mean(b) - mean(a);
+        if (va + vb == 0.0) {
+            // no variance at all
+            return difference > 0.0 ? 0.0 : 1.0;
+        }
+        double t = difference / Math.sqrt(va + vb);
+        // Welch-Satterthwaite degrees of freedom
+        double df = (va + vb) * (va + vb)
+                / (va * va / (a.length - 1) + vb * vb / (b.length - 1));
+        return 1.0 - studentT(t, df);
+    }
+
+    /**
+     * Returns the cumulative distribution function of Student's t
+     * distribution with the specified degrees of freedom at t.
+     */
+    public static double studentT(double t, double df) {
+        double tail = 0.5 * incompleteBeta(df / (df + t * t), df / 2.0, 0.5);
+        return t > 0.0 ? 1.0 - tail : tail;
+    }
+
+    /**
+     * Returns the p-quantile of Student's t distribution with the specified
+     * degrees of freedom (found by bisection of the distribution function).
+     */
+    public static double tQuantile(double p, double df) {
+        if (p <= 0.0 || p >= 1.0) {
+            throw new IllegalArgumentException("p must be in (0, 1)");
+        }
+        double low = -1.0;
+        double high = 1.0;
+        while (studentT(low, df) > p) {
+            low *= 2.0;
+        }
+        while (studentT(high, df) < p) {
+            high *= 2.0;
+        }
+        for (int i = 0; i < MAX_ITERATIONS && high - low > EPSILON; i++) {
+            double middle = (low + high) / 2.0;
+            if (studentT(middle, df) < p) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2.0;
+    }
+
+    /**
+     * Returns the regularized incomplete beta function I_x(a, b).
+     */
+    public static double incompleteBeta(double x, double a, double b) {
+        if (x <= 0.0) {
+            return 0.0;
+        } else if (x >= 1.0) {
+            return 1.0;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+                + a * Math.log(x) + b * Math.log(1.0 - x));
+        // the continued fraction converges quickly for x < (a + 1) / (a + b
+        // + 2), otherwise use the symmetry relation
+        if (x < (a + 1.0) / (a + b + 2.0)) {
+            return front * betaFraction(x, a, b) / a;
+        }
+        return 1.0 - front * betaFraction(1.0 - x, b, a) / b;
+    }
+
+    /**
+     * Evaluates the continued fraction of the incomplete beta function
+     * (modified Lentz's method).
+     */
+    private static double betaFraction(double x, double a, double b) {
+        double tiny = 1e-300;
+        double c = 1.0;
+        double d = 1.0 - (a + b) * x / (a + 1.0);
+        d = 1.0 / (Math.abs(d) < tiny ? tiny : d);
+        double result = d;
+        for (int m = 1; m <= MAX_ITERATIONS; m++) {
+            // even step
+            double numerator = m * (b - m) * x
+                    / ((a + 2 * m - 1) * (a + 2 * m));
+            d = 1.0 + numerator * d;
+            d = 1.0 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1.0 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            result *= d * c;
+            // odd step
+            numerator = -(a + m) * (a + b + m) * x
+                    / ((a + 2 * m) * (a + 2 * m + 1));
+            d = 1.0 + numerator * d;
+            d = 1.0 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1.0 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1.0) < EPSILON) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the natural logarithm of the gamma function (Lanczos
+     * approximation).
+     */
+    public static double logGamma(double x) {
+        double[] coefficients = {
+            76.18009172947146, -86.50532032941677, 24.01409824083091,
+            -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5
+        };
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+}
@@ -0,0 +1,114 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects when the throughput of a test has become stationary. The detector
+ * is fed the throughput (or any other primary metric, see RunResult) of every
+ * whole warm-up run, so that the ramp-up and ramp-down within a run do not
+ * distort the comparison.
+ * <p>
+ * The throughput is considered stationary if the mean throughput of the last
+ * window of runs does not differ from the one of the window before, i.e. if
+ * the difference is both within the tolerance relative to the earlier window
+ * and not significant at level alpha (two-sided Welch's t-test).
+ */
+public class SteadyStateDetector {
+
+    private final int window;
+    private final double tolerance;
+    private final double alpha;
+    // throughput of the runs so far
+    private final List<Double> samples;
+
+    /**
+     * @param window the number of runs of the windows compared
+     * @param tolerance the maximum relative difference of the mean throughput
+     *            of two consecutive windows
+     * @param alpha the significance level
+     */
+    public SteadyStateDetector(int window, double tolerance, double alpha) {
+        this.window = Math.max(window, 2);
+        this.tolerance = tolerance;
+        this.alpha = alpha;
+        samples = new ArrayList<Double>();
+    }
+
+    /**
+     * Adds the throughput of a run.
+     */
+    public void addSample(double value) {
+        samples.add(value);
+    }
+
+    /**
+     * Returns the number of runs added so far.
+     */
+    public int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * Returns the throughput of the runs added so far.
+     */
+    public double[] getSamples() {
+        double[] values = new double[samples.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = samples.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the relative difference of the mean throughput of the last
+     * window of runs to the one of the window before, or NaN if fewer than
+     * two windows of runs have been added.
+     */
+    public double getChange() {
+        double[][] windows = getWindows();
+        if (windows == null) {
+            return Double.NaN;
+        }
+        return getChange(windows);
+    }
+
+    private static double getChange(double[][] windows) {
+        double before = Statistics.mean(windows[0]);
+        return (Statistics.mean(windows[1]) - before) / before;
+    }
+
+    /**
+     * Returns true if the throughput of the runs added so far is stationary.
+     */
+    public boolean isSteady() {
+        double[][] windows = getWindows();
+        if (windows == null) {
+            return false;
+        }
+        if (!(Math.abs(getChange(windows)) <= tolerance)) {
+            return false;
+        }
+        double p = 2.0 * Math.min(Statistics.welchTest(windows[0],
+                windows[1]), Statistics.welchTest(windows[1], windows[0]));
+        return p >= alpha;
+    }
+
+    /**
+     * Returns the last two windows of runs, or null if there are not enough
+     * runs.
+     */
+    private double[][] getWindows() {
+        double[] values = getSamples();
+        if (values.length < 2 * window) {
+            return null;
+        }
+        double[][] windows = new double[2][window];
+        System.arraycopy(values, values.length - 2 * window, windows[0], 0,
+                window);
+        System.arraycopy(values, values.length - window, windows[1], 0,
+                window);
+        return windows;
+    }
+
+}
@@ -0,0 +1,68 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter that can be updated concurrently by many threads without
+ * them contending on the same memory location: every thread adds to one of
+ * several stripes (chosen based on the thread id) and the stripes are summed
+ * up when the value is read.
+ */
+public class StripedCounter {
+
+    // number of array elements between two stripes, so that every stripe
+    // lives on its own cache line
+    private static final int PADDING = 8;
+    // number of stripes (a power of two)
+    static final int STRIPES = getStripeCount();
+
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        cells = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    private static int getStripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int n = 1;
+        while (n < processors && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the stripe to be used by the current thread.
+     */
+    static int getStripe() {
+        long id = Thread.currentThread().threadId();
+        // thread ids are assigned sequentially, mix them anyway in case
+        // threads are created and discarded in a regular pattern
+        int h = (int) (id ^ (id >>> 16));
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & (STRIPES - 1);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(getStripe() * PADDING, delta);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+}
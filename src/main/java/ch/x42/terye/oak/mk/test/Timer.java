@@ -1,48 +1,240 @@
 package ch.x42.terye.oak.mk.test;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Simple timer class.
+ * Simple timer class. Besides measuring the duration of whole test
+ * invocations, the timer collects the latency histograms and the throughput
+ * of the individual operations performed during the invocations.
  */
 public class Timer {
 
     private long start;
+    // durations in nanoseconds
     private List<Long> durations;
     private long last;
     private Double avg;
     private Long min;
     private Long max;
+    // operation latencies of the current (or last) invocation
+    private Map<String, Histogram> lastLatencies;
+    // operation latencies of all invocations since the last reset
+    private Map<String, Histogram> latencies;
+    // number of operations and time in nanoseconds spent performing them
+    // during the current (or last) invocation
+    private long lastOperations;
+    private long lastOperationsTime;
+    // same as above, for all invocations since the last reset
+    private long operations;
+    private long operationsTime;
+    // targeted number of operations per second (0 if none)
+    private double targetThroughput;
+    // length of the warm-up phase in nanoseconds, number of warm-up
+    // invocations and whether the throughput had become stationary
+    private long warmupDuration;
+    private int warmupRuns;
+    private boolean warmupSteady;
+    private volatile boolean warmedUp;
 
     public Timer() {
-        durations = new LinkedList<Long>();
+        durations = new ArrayList<Long>();
+        lastLatencies = new TreeMap<String, Histogram>();
+        latencies = new TreeMap<String, Histogram>();
     }
 
-    public void start() {
-        start = System.currentTimeMillis();
+    public synchronized void start() {
+        lastLatencies.clear();
+        lastOperations = 0;
+        lastOperationsTime = 0;
+        start = System.nanoTime();
     }
 
-    public void stop() {
-        last = System.currentTimeMillis() - start;
+    public synchronized void stop() {
+        last = System.nanoTime() - start;
         durations.add(last);
+        avg = null;
+        min = null;
+        max = null;
+    }
+
+    /**
+     * Adds the latencies of an operation that have been recorded during the
+     * current invocation. This method may be called concurrently, e.g. by the
+     * worker threads of a test.
+     *
+     * @param operation the name of the operation
+     * @param histogram the recorded latencies
+     */
+    public synchronized void recordLatencies(String operation,
+            Histogram histogram) {
+        add(lastLatencies, operation, histogram);
+        add(latencies, operation, histogram);
+    }
+
+    private static void add(Map<String, Histogram> map, String operation,
+            Histogram histogram) {
+        Histogram h = map.get(operation);
+        if (h == null) {
+            h = new Histogram();
+            map.put(operation, h);
+        }
+        h.add(histogram);
+    }
+
+    /**
+     * Records the number of operations performed during the current
+     * invocation and the time it took to perform them.
+     *
+     * @param nb the number of operations
+     * @param nanos the elapsed time in nanoseconds
+     */
+    public synchronized void recordOperations(long nb, long nanos) {
+        lastOperations += nb;
+        lastOperationsTime += nanos;
+        operations += nb;
+        operationsTime += nanos;
+    }
+
+    /**
+     * Sets the results of the warm-up phase. They are not affected by
+     * reset().
+     *
+     * @param nanos the length of the warm-up phase in nanoseconds
+     * @param runs the number of warm-up invocations
+     * @param steady true if the throughput had become stationary
+     */
+    public synchronized void setWarmup(long nanos, int runs, boolean steady) {
+        warmupDuration = nanos;
+        warmupRuns = runs;
+        warmupSteady = steady;
+        warmedUp = true;
+    }
+
+    /**
+     * Returns true once the warm-up phase is over (see setWarmup()).
+     */
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * Returns the length of the warm-up phase in milliseconds.
+     */
+    public synchronized long getWarmupDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(warmupDuration);
+    }
+
+    public synchronized int getWarmupRuns() {
+        return warmupRuns;
+    }
+
+    public synchronized boolean isWarmupSteady() {
+        return warmupSteady;
+    }
+
+    /**
+     * Returns the number of operations per second achieved in the last
+     * invocation, or 0 if no operations have been recorded.
+     */
+    public synchronized double getLastThroughput() {
+        return getThroughput(lastOperations, lastOperationsTime);
+    }
+
+    /**
+     * Returns the number of operations per second achieved in all invocations
+     * since the last reset, or 0 if no operations have been recorded.
+     */
+    public synchronized double getThroughput() {
+        return getThroughput(operations, operationsTime);
+    }
+
+    private static double getThroughput(long nb, long nanos) {
+        if (nanos == 0) {
+            return 0.0;
+        }
+        return nb / (nanos / 1000000000.0);
+    }
+
+    /**
+     * Returns the time in nanoseconds spent performing the operations of the
+     * last invocation.
+     */
+    public synchronized long getLastOperationsTime() {
+        return lastOperationsTime;
+    }
+
+    /**
+     * Returns the time in nanoseconds spent performing the operations of all
+     * invocations since the last reset.
+     */
+    public synchronized long getOperationsTime() {
+        return operationsTime;
+    }
+
+    /**
+     * Sets the number of operations per second the test aims for (0 if the
+     * test does not aim for a specific throughput).
+     */
+    public synchronized void setTargetThroughput(double targetThroughput) {
+        this.targetThroughput = targetThroughput;
+    }
+
+    public synchronized double getTargetThroughput() {
+        return targetThroughput;
     }
 
+    /**
+     * Returns the operation latencies recorded during the last invocation.
+     */
+    public synchronized Map<String, Histogram> getLastLatencies() {
+        return Collections.unmodifiableMap(lastLatencies);
+    }
+
+    /**
+     * Returns the operation latencies recorded during all invocations since
+     * the last reset.
+     */
+    public synchronized Map<String, Histogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Returns the duration of the last invocation in milliseconds.
+     */
     public long getLastDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(last);
+    }
+
+    /**
+     * Returns the duration of the last invocation in nanoseconds.
+     */
+    public long getLastDurationNanos() {
         return last;
     }
 
+    /**
+     * Returns the sum of the durations of all invocations in nanoseconds.
+     */
+    public long getTotalDurationNanos() {
+        long sum = 0L;
+        for (Long duration : durations) {
+            sum += duration;
+        }
+        return sum;
+    }
+
     public int getCount() {
         return durations.size();
     }
 
     public double getAverageDuration() {
         if (avg == null) {
-            long sum = 0L;
-            for (Long duration : durations) {
-                sum += duration;
-            }
-            avg = sum / (double) getCount();
+            avg = getTotalDurationNanos() / (double) getCount() / 1000000.0;
         }
         return avg;
     }
@@ -56,7 +248,7 @@ public class Timer {
                 }
             }
         }
-        return min;
+        return TimeUnit.NANOSECONDS.toMillis(min);
     }
 
     public long getMaxDuration() {
@@ -68,16 +260,22 @@ public class Timer {
                 }
             }
         }
-        return max;
+        return TimeUnit.NANOSECONDS.toMillis(max);
     }
 
-    public void reset() {
+    public synchronized void reset() {
         start = -1;
         durations.clear();
         last = -1;
         avg = null;
         min = null;
         max = null;
+        lastLatencies.clear();
+        latencies.clear();
+        lastOperations = 0;
+        lastOperationsTime = 0;
+        operations = 0;
+        operationsTime = 0;
     }
 
 }
@@ -0,0 +1,13 @@
+package ch.x42.terye.oak.mk.test;
+
+/**
+ * Interface for test classes that want to report additional measurements
+ * (e.g. the latencies of individual operations) to the performance test
+ * runner. The runner passes its timer to the test instance right after having
+ * created it.
+ */
+public interface TimerAware {
+
+    public void setTimer(Timer timer);
+
+}
@@ -0,0 +1,247 @@
+package ch.x42.terye.oak.mk.test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A workload descriptor defines the parameters of a test (tree shape, number
+ * of threads, commit rate etc.) as key/value pairs. The parameters are read
+ * from a properties file, whose location is defined by the system property
+ * mktest.workload, and from system properties of the form mktest.&lt;key&gt;,
+ * the latter taking precedence (except for the properties controlling how
+ * the tests are run, e.g. mktest.fixtures). A key can be qualified with the
+ * simple name of a test class (e.g. MicroKernelConcurrentAddTest.commitRate),
+ * in which case it only applies to that class and overrides the unqualified
+ * key.
+ * <p>
+ * A value may consist of a comma-separated list of values. Such a workload
+ * definition is expanded into one workload per combination of values (see
+ * expand()), e.g. "treeHeight=4,5" and "commitRate=100,500" results in four
+ * workloads. Tests not finding a key in their workload fall back to their
+ * built-in default value.
+ */
+public class Workload {
+
+    /**
+     * System property defining the location of the workload file.
+     */
+    public static final String PROPERTY_FILE = "mktest.workload";
+
+    /**
+     * Prefix of system properties defining workload parameters.
+     */
+    public static final String PROPERTY_PREFIX = "mktest.";
+
+    /**
+     * System properties with the workload prefix that control how the tests
+     * are run (fixtures, instrumentation, result files, run counts etc.)
+     * rather than defining workload parameters.
+     */
+    private static final Set<String> RUN_PROPERTIES = new HashSet<String>(
+            Arrays.asList(PROPERTY_FILE, "mktest.fixtures",
+                    "mktest.instrument", ResultStore.PROPERTY_RESULTS,
+                    Environment.PROPERTY_REVISION,
+                    RegressionDetector.PROPERTY_BASELINE,
+                    RegressionDetector.PROPERTY_ALPHA,
+                    RegressionDetector.PROPERTY_THRESHOLD,
+                    PerformanceTestRunner.PROPERTY_CI_WIDTH,
+                    PerformanceTestRunner.PROPERTY_MAX_RUNS,
+                    PerformanceTestRunner.PROPERTY_MAX_WARMUP_RUNS,
+                    PerformanceTestRunner.PROPERTY_WARMUP_TOLERANCE));
+
+    /**
+     * Key defining the number of concurrent clients (threads).
+     */
+    public static final String KEY_THREADS = "threads";
+
+    /**
+     * Key defining the maximum number of concurrent clients of a scalability
+     * sweep. If set (and the number of threads is not), the number of threads
+     * is expanded to 1, 2, 4, ... up to that maximum.
+     */
+    public static final String KEY_MAX_THREADS = "maxThreads";
+
+    /**
+     * Key defining the approximate number of nodes of the initial data of a
+     * test. Several sizes in ascending order make a test run on a repository
+     * growing step by step (see GrowableDataset).
+     */
+    public static final String KEY_DATA_SIZE = "dataSize";
+
+    // all parameters of this workload
+    private final Map<String, String> values;
+    // parameters that have been varied when expanding the workload
+    private final Map<String, String> varied;
+
+    public Workload() {
+        this(new TreeMap<String, String>(), new TreeMap<String, String>());
+    }
+
+    private Workload(Map<String, String> values, Map<String, String> varied) {
+        this.values = values;
+        this.varied = varied;
+    }
+
+    /**
+     * Reads the workload definition applying to the specified test class and
+     * expands it into the list of all workloads it defines.
+     */
+    public static List<Workload> expand(Class<?> testClass) throws IOException {
+        Map<String, String> definition = read(testClass);
+        List<Workload> workloads = new ArrayList<Workload>();
+        workloads.add(new Workload());
+        for (Entry<String, String> entry : definition.entrySet()) {
+            String[] options = entry.getValue().split(",");
+            List<Workload> expanded = new ArrayList<Workload>();
+            for (Workload workload : workloads) {
+                for (String option : options) {
+                    Workload w = workload.with(entry.getKey(), option.trim());
+                    if (options.length > 1) {
+                        w.varied.put(entry.getKey(), option.trim());
+                    }
+                    expanded.add(w);
+                }
+            }
+            workloads = expanded;
+        }
+        return workloads;
+    }
+
+    /**
+     * Reads the workload file and the system properties and returns all
+     * definitions applying to the specified test class.
+     */
+    private static Map<String, String> read(Class<?> testClass)
+            throws IOException {
+        Properties properties = new Properties();
+        String file = System.getProperty(PROPERTY_FILE);
+        if (file != null) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROPERTY_PREFIX)
+                    && !RUN_PROPERTIES.contains(name)) {
+                properties.setProperty(name.substring(PROPERTY_PREFIX.length()),
+                        System.getProperty(name));
+            }
+        }
+        // unqualified keys first, so that qualified keys override them
+        String qualifier = testClass.getSimpleName() + ".";
+        Map<String, String> definition = new LinkedHashMap<String, String>();
+        Map<String, String> qualified = new TreeMap<String, String>();
+        for (String key : new TreeSet<String>(
+                properties.stringPropertyNames())) {
+            String value = properties.getProperty(key).trim();
+            if (key.indexOf('.') == -1) {
+                definition.put(key, value);
+            } else if (key.startsWith(qualifier)) {
+                qualified.put(key.substring(qualifier.length()), value);
+            }
+        }
+        definition.putAll(qualified);
+        // expand the scalability sweep
+        if (definition.containsKey(KEY_MAX_THREADS)
+                && !definition.containsKey(KEY_THREADS)) {
+            int max = Integer.parseInt(definition.get(KEY_MAX_THREADS));
+            String threads = "";
+            for (int n = 1; n < max; n *= 2) {
+                threads += n + ",";
+            }
+            definition.put(KEY_THREADS, threads + max);
+        }
+        return definition;
+    }
+
+    /**
+     * Returns a copy of this workload with the specified parameter set.
+     */
+    public Workload with(String key, String value) {
+        Workload workload = new Workload(new TreeMap<String, String>(values),
+                new TreeMap<String, String>(varied));
+        workload.values.put(key, value);
+        return workload;
+    }
+
+    /**
+     * Returns all parameters of this workload.
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns the parameters that distinguish this workload from the other
+     * workloads it has been expanded with.
+     */
+    public Map<String, String> getVaried() {
+        return Collections.unmodifiableMap(varied);
+    }
+
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * Returns the parameters that distinguish this workload from the other
+     * workloads it has been expanded with, or an empty string if there are
+     * none.
+     */
+    @Override
+    public String toString() {
+        if (varied.isEmpty()) {
+            return "";
+        }
+        String str = "";
+        for (Entry<String, String> entry : varied.entrySet()) {
+            if (!str.isEmpty()) {
+                str += ",";
+            }
+            str += entry.getKey() + "=" + entry.getValue();
+        }
+        return str;
+    }
+
+}
@@ -0,0 +1,105 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.io.IOException;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for fixtures implementing seeding by means of the microkernel
+ * API only, so that it works the same on every backend: after a dataset has
+ * been created, the head revision is remembered. Seeding the same dataset
+ * again reverts all changes made since by committing the diff from the
+ * current head revision back to the remembered revision. Seeding a growable
+ * dataset containing the seeded dataset reverts the changes as well and then
+ * grows the seeded dataset (see GrowableDataset).
+ */
+public abstract class AbstractMKTestFixture implements MicroKernelTestFixture {
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // the seeded dataset, null if none
+    private Dataset dataset;
+    // head revision right after the dataset has been created
+    private String revision;
+
+    @Override
+    public void seed(Dataset dataset) throws Exception {
+        if (this.dataset != null
+                && dataset.getName().equals(this.dataset.getName())) {
+            long start = System.currentTimeMillis();
+            restore();
+            logger.debug("Restored dataset " + dataset.getName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if (this.dataset != null && dataset instanceof GrowableDataset
+                && ((GrowableDataset) dataset).contains(this.dataset)) {
+            restore();
+            ((GrowableDataset) dataset).grow(this, this.dataset);
+            logger.debug("Grew dataset " + this.dataset.getName() + " to "
+                    + dataset.getName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } else {
+            if (this.dataset != null) {
+                // another dataset has been seeded
+                this.dataset = null;
+                dropData();
+            }
+            dataset.create(this);
+            logger.debug("Created dataset " + dataset.getName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        MicroKernel mk = createMicroKernel();
+        try {
+            revision = mk.getHeadRevision();
+        } finally {
+            disposeMicroKernel(mk);
+        }
+        this.dataset = dataset;
+    }
+
+    /**
+     * Reverts all changes made since the seeded dataset has been created.
+     */
+    private void restore() throws Exception {
+        MicroKernel mk = createMicroKernel();
+        try {
+            String jsop = mk.diff(mk.getHeadRevision(), revision, "/", -1);
+            if (!jsop.trim().isEmpty()) {
+                mk.commit("", jsop, null, "Restore " + dataset.getName());
+            }
+        } finally {
+            disposeMicroKernel(mk);
+        }
+    }
+
+    /**
+     * Returns true if a dataset has been seeded, in which case the data must
+     * not be dropped after a test.
+     */
+    protected boolean isSeeded() {
+        return dataset != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataset = null;
+        try {
+            dropData();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Drops all data. All microkernels created by this fixture have been
+     * disposed of when this method is called.
+     */
+    protected abstract void dropData() throws Exception;
+
+}
@@ -0,0 +1,21 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+/**
+ * A dataset tests can seed a fixture with (see
+ * MicroKernelTestFixture.seed()).
+ */
+public interface Dataset {
+
+    /**
+     * Returns the name of this dataset. Datasets with the same name must
+     * have the same content, i.e. the name has to reflect all parameters
+     * that have an influence on the content.
+     */
+    public String getName();
+
+    /**
+     * Creates the dataset in the (empty) repository of the specified fixture.
+     */
+    public void create(MicroKernelTestFixture fixture) throws Exception;
+
+}
@@ -0,0 +1,23 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+/**
+ * A dataset that can be created by adding data to a smaller dataset, so that
+ * tests can be run on a repository growing step by step without having to
+ * create every step from scratch.
+ */
+public interface GrowableDataset extends Dataset {
+
+    /**
+     * Returns true if this dataset contains all data of the specified
+     * dataset, i.e. if it can be created by growing the specified dataset.
+     */
+    public boolean contains(Dataset dataset);
+
+    /**
+     * Creates this dataset in the repository of the specified fixture, which
+     * contains the specified (smaller) dataset.
+     */
+    public void grow(MicroKernelTestFixture fixture, Dataset dataset)
+            throws Exception;
+
+}
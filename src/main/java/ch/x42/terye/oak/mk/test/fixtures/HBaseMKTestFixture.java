@@ -10,7 +10,7 @@ import org.apache.jackrabbit.mk.api.MicroKernel;
 
 import ch.x42.terye.mk.hbase.HBaseMicroKernel;
 
-public class HBaseMKTestFixture implements MicroKernelTestFixture {
+public class HBaseMKTestFixture extends AbstractMKTestFixture {
 
     private static final String HBASE_ZOOKEEPER_QUORUM = "localhost";
 
@@ -50,18 +50,21 @@ public class HBaseMKTestFixture implements MicroKernelTestFixture {
     @Override
     public void tearDownAfterTest() throws Exception {
         // dispose of remaining microkernels
-        HBaseMicroKernel any = null;
         for (HBaseMicroKernel mk : mks) {
-            if (any == null) {
-                any = mk;
-            } else {
-                mk.dispose();
-            }
+            mk.dispose();
         }
-        // drop all tables using any of the microkernels
-        any.dispose(true);
         // clear list so that the microkernels can be gc'd
         mks.clear();
+        if (!isSeeded()) {
+            dropData();
+        }
+    }
+
+    @Override
+    protected void dropData() throws Exception {
+        // drop all tables using a new microkernel
+        HBaseAdmin admin = new HBaseAdmin(config);
+        new HBaseMicroKernel(admin, counter++).dispose(true);
     }
 
     @Override
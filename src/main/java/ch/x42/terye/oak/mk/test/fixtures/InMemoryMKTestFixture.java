@@ -0,0 +1,51 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+
+/**
+ * Fixture for the in-memory microkernel. All microkernels created for a test
+ * share the same repository, which is dropped after the test (unless a
+ * dataset has been seeded). As there is neither I/O nor a remote store
+ * involved, the results of this fixture represent the performance ceiling of
+ * the tests (and the overhead of the test harness itself).
+ */
+public class InMemoryMKTestFixture extends AbstractMKTestFixture {
+
+    private InMemoryMicroKernel mk;
+
+    @Override
+    public synchronized MicroKernel createMicroKernel() throws Exception {
+        if (mk == null) {
+            mk = new InMemoryMicroKernel();
+        }
+        return mk;
+    }
+
+    @Override
+    public void disposeMicroKernel(MicroKernel mk) throws Exception {
+        // nothing to do, the repository is shared
+    }
+
+    @Override
+    public void setUpBeforeTest() throws Exception {
+        // nothing to do, the repository is created on demand
+    }
+
+    @Override
+    public void tearDownAfterTest() throws Exception {
+        if (!isSeeded()) {
+            dropData();
+        }
+    }
+
+    @Override
+    protected synchronized void dropData() throws Exception {
+        mk = null;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryMicroKernel";
+    }
+
+}
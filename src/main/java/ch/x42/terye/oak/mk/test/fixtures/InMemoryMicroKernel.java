@@ -0,0 +1,934 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+import org.apache.jackrabbit.mk.json.JsopBuilder;
+import org.apache.jackrabbit.mk.json.JsopReader;
+import org.apache.jackrabbit.mk.json.JsopTokenizer;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+
+/**
+ * Multi-version microkernel keeping all data in memory. It is meant to be a
+ * zero-dependency baseline the other microkernels can be compared against.
+ * <p>
+ * Every revision is an immutable tree. A commit copies the nodes it modifies
+ * (and their ancestors) and shares all other nodes with the revision it is
+ * based on, so reading never needs to lock. Commits are lock-free as well: a
+ * commit applies its changes to the current head revision and then tries to
+ * atomically replace the head with the new revision. If another commit got
+ * there first, the changes are re-applied to the new head, which fails with a
+ * MicroKernelException if they conflict with the concurrent commit. If a
+ * commit specifies the revision it is based on, it also fails if any revision
+ * committed after that revision changed the same items.
+ * <p>
+ * Branches are chains of revisions based on a trunk revision. A merge
+ * replays the changes of the branch on the head revision (or simply makes
+ * the branch the new head if the trunk hasn't changed since the branch was
+ * created) and fails if a trunk revision committed after the base of the
+ * branch changed the same items.
+ * <p>
+ * Only the subset of the API used by the tests is supported: the depth
+ * argument of diff() and the filter argument of getNodes() are not.
+ * Revisions are never garbage collected.
+ */
+public class InMemoryMicroKernel implements MicroKernel {
+
+    // size of the chunks blobs are stored in
+    private static final int BLOB_CHUNK_SIZE = 1 << 20;
+    // blobs are kept on the heap, larger streams are rejected
+    private static final long MAX_BLOB_SIZE = 1L << 31;
+
+    private final AtomicReference<Revision> head;
+    // cache of revisions by id (revisions not yet in the cache are found by
+    // walking back from the head revision)
+    private final ConcurrentMap<String, Revision> revisions;
+    // unique owner ids for commit attempts (see Node)
+    private final AtomicLong attempts;
+    // objects used to wake up threads waiting for a commit
+    private final Object monitor;
+    private final AtomicInteger waiting;
+    private final ConcurrentMap<String, Blob> blobs;
+    private final AtomicLong blobCounter;
+    // used to name branch revisions
+    private final AtomicLong branchCounter;
+
+    public InMemoryMicroKernel() {
+        attempts = new AtomicLong();
+        Revision initial = new Revision(0, null, new Node(0), 0, "",
+                Collections.<Change> emptyList());
+        head = new AtomicReference<Revision>(initial);
+        revisions = new ConcurrentHashMap<String, Revision>();
+        revisions.put(initial.id, initial);
+        monitor = new Object();
+        waiting = new AtomicInteger();
+        blobs = new ConcurrentHashMap<String, Blob>();
+        blobCounter = new AtomicLong();
+        branchCounter = new AtomicLong();
+    }
+
+    // ------------------------------------------------------------ revisions
+
+    @Override
+    public String getHeadRevision() throws MicroKernelException {
+        return head.get().id;
+    }
+
+    private Revision getRevision(String id) {
+        Revision head = this.head.get();
+        if (id == null) {
+            return head;
+        }
+        Revision revision = revisions.get(id);
+        if (revision != null) {
+            return revision;
+        }
+        // the revision might have just been committed
+        for (Revision r = head; r != null; r = r.parent) {
+            if (r.id.equals(id)) {
+                return r;
+            }
+        }
+        throw new MicroKernelException("Unknown revision: " + id);
+    }
+
+    @Override
+    public String getRevisionHistory(long since, int maxEntries, String path)
+            throws MicroKernelException {
+        List<Revision> list = new ArrayList<Revision>();
+        for (Revision r = head.get(); r.parent != null
+                && r.timestamp >= since; r = r.parent) {
+            if (maxEntries >= 0 && list.size() >= maxEntries) {
+                break;
+            }
+            if (path == null || r.affects(path)) {
+                list.add(r);
+            }
+        }
+        Collections.reverse(list);
+        JsopBuilder json = new JsopBuilder().array();
+        for (Revision r : list) {
+            appendRevision(json, r);
+            json.endObject();
+        }
+        return json.endArray().toString();
+    }
+
+    @Override
+    public String waitForCommit(String oldHeadRevisionId, long timeout)
+            throws MicroKernelException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        waiting.incrementAndGet();
+        try {
+            synchronized (monitor) {
+                long remaining = timeout;
+                while (remaining > 0
+                        && head.get().id.equals(oldHeadRevisionId)) {
+                    monitor.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return head.get().id;
+    }
+
+    @Override
+    public String getJournal(String fromRevisionId, String toRevisionId,
+            String path) throws MicroKernelException {
+        Revision from = getRevision(fromRevisionId);
+        Revision to = getRevision(toRevisionId);
+        List<Revision> list = new ArrayList<Revision>();
+        // with a path filter, revisions not affecting the path are omitted
+        boolean filtered = path != null && !PathUtils.denotesRoot(path);
+        for (Revision r = to; r != null && r.number >= from.number;
+                r = r.parent) {
+            if (!filtered || r.affects(path)) {
+                list.add(r);
+            }
+        }
+        Collections.reverse(list);
+        JsopBuilder json = new JsopBuilder().array();
+        for (Revision r : list) {
+            StringBuilder changes = new StringBuilder();
+            for (Change change : r.changes) {
+                if (!change.jsop.isEmpty()
+                        && (path == null || change.affects(path))) {
+                    changes.append(change.jsop).append('\n');
+                }
+            }
+            appendRevision(json, r);
+            json.key("changes").value(changes.toString()).endObject();
+        }
+        return json.endArray().toString();
+    }
+
+    /**
+     * Appends the (unterminated) JSON object describing a revision.
+     */
+    private static void appendRevision(JsopBuilder json, Revision r) {
+        json.object().key("id").value(r.id).key("ts").value(r.timestamp)
+                .key("msg").value(r.message);
+    }
+
+    @Override
+    public String diff(String fromRevisionId, String toRevisionId,
+            String path, int depth) throws MicroKernelException {
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        Node from = getNode(getRevision(fromRevisionId).root, path);
+        Node to = getNode(getRevision(toRevisionId).root, path);
+        JsopBuilder jsop = new JsopBuilder();
+        if (from == null && to != null) {
+            appendAdd(jsop, path, to);
+        } else if (from != null && to == null) {
+            appendRemove(jsop, path);
+        } else if (from != null) {
+            diff(jsop, path, from, to);
+        }
+        return jsop.toString();
+    }
+
+    private static void diff(JsopBuilder jsop, String path, Node from,
+            Node to) {
+        if (from == to) {
+            // shared between the revisions
+            return;
+        }
+        for (Entry<String, String> entry : from.properties.entrySet()) {
+            String value = to.properties.get(entry.getKey());
+            if (value == null) {
+                appendSet(jsop, PathUtils.concat(path, entry.getKey()), "null");
+            } else if (!value.equals(entry.getValue())) {
+                appendSet(jsop, PathUtils.concat(path, entry.getKey()), value);
+            }
+        }
+        for (Entry<String, String> entry : to.properties.entrySet()) {
+            if (!from.properties.containsKey(entry.getKey())) {
+                appendSet(jsop, PathUtils.concat(path, entry.getKey()),
+                        entry.getValue());
+            }
+        }
+        for (Entry<String, Node> entry : from.children.entrySet()) {
+            String childPath = PathUtils.concat(path, entry.getKey());
+            Node child = to.children.get(entry.getKey());
+            if (child == null) {
+                appendRemove(jsop, childPath);
+            } else {
+                diff(jsop, childPath, entry.getValue(), child);
+            }
+        }
+        for (Entry<String, Node> entry : to.children.entrySet()) {
+            if (!from.children.containsKey(entry.getKey())) {
+                appendAdd(jsop, PathUtils.concat(path, entry.getKey()),
+                        entry.getValue());
+            }
+        }
+    }
+
+    private static void appendAdd(JsopBuilder jsop, String path, Node node) {
+        jsop.tag('+').key(path);
+        appendNode(jsop, node, -1, 0, -1, false);
+        jsop.newline();
+    }
+
+    private static void appendRemove(JsopBuilder jsop, String path) {
+        jsop.tag('-').value(path).newline();
+    }
+
+    private static void appendSet(JsopBuilder jsop, String path,
+            String value) {
+        jsop.tag('^').key(path).encodedValue(value).newline();
+    }
+
+    // ---------------------------------------------------------------- nodes
+
+    /**
+     * Returns the node at the specified absolute path, or null if there is no
+     * such node.
+     */
+    private static Node getNode(Node root, String path) {
+        Node node = root;
+        for (String name : PathUtils.elements(path)) {
+            node = node.children.get(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public boolean nodeExists(String path, String revisionId)
+            throws MicroKernelException {
+        return getNode(getRevision(revisionId).root, path) != null;
+    }
+
+    @Override
+    public long getChildNodeCount(String path, String revisionId)
+            throws MicroKernelException {
+        Node node = getNode(getRevision(revisionId).root, path);
+        if (node == null) {
+            throw new MicroKernelException("Path not found: " + path);
+        }
+        return node.children.size();
+    }
+
+    @Override
+    public String getNodes(String path, String revisionId, int depth,
+            long offset, int maxChildNodes, String filter)
+            throws MicroKernelException {
+        Node node = getNode(getRevision(revisionId).root, path);
+        if (node == null) {
+            return null;
+        }
+        JsopBuilder json = new JsopBuilder();
+        appendNode(json, node, depth, offset, maxChildNodes, true);
+        return json.toString();
+    }
+
+    /**
+     * Appends the JSON representation of a node.
+     *
+     * @param depth the depth up to which child nodes are included (-1 for
+     *            infinite), child nodes below are represented by empty objects
+     * @param offset the number of child nodes to skip (on the first level)
+     * @param maxChildNodes the maximum number of child nodes per node (-1 for
+     *            no limit)
+     * @param childNodeCount whether or not to include the child node count
+     */
+    private static void appendNode(JsopBuilder json, Node node, int depth,
+            long offset, int maxChildNodes, boolean childNodeCount) {
+        json.object();
+        if (childNodeCount) {
+            json.key(":childNodeCount").value(node.children.size());
+        }
+        for (Entry<String, String> entry : node.properties.entrySet()) {
+            json.key(entry.getKey()).encodedValue(entry.getValue());
+        }
+        Iterator<Entry<String, Node>> iterator = node.children.entrySet()
+                .iterator();
+        for (long i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        for (int i = 0; iterator.hasNext()
+                && (maxChildNodes < 0 || i < maxChildNodes); i++) {
+            Entry<String, Node> entry = iterator.next();
+            json.key(entry.getKey());
+            if (depth == 0) {
+                json.object().endObject();
+            } else {
+                appendNode(json, entry.getValue(), depth < 0 ? -1 : depth - 1,
+                        0, maxChildNodes, childNodeCount);
+            }
+        }
+        json.endObject();
+    }
+
+    // -------------------------------------------------------------- commits
+
+    @Override
+    public String commit(String path, String jsonDiff, String revisionId,
+            String message) throws MicroKernelException {
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        // the revision the changes are based on, if any
+        Revision known = revisionId == null ? null : getRevision(revisionId);
+        if (known != null && known.branch) {
+            Commit commit = new Commit(known.root, attempts.incrementAndGet());
+            commit.apply(path, jsonDiff);
+            return addBranchRevision(known, commit, message).id;
+        }
+        while (true) {
+            Revision base = head.get();
+            Commit commit = new Commit(base.root, attempts.incrementAndGet());
+            commit.apply(path, jsonDiff);
+            if (known != null) {
+                checkConflicts(commit, base, known);
+            }
+            Revision revision = new Revision(base.number + 1, base,
+                    commit.root, System.currentTimeMillis(),
+                    message == null ? "" : message, commit.changes);
+            if (head.compareAndSet(base, revision)) {
+                revisions.put(revision.id, revision);
+                if (waiting.get() > 0) {
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                }
+                return revision.id;
+            }
+            // a concurrent commit got there first, try again
+        }
+    }
+
+    /**
+     * Throws a MicroKernelException if a revision committed after the
+     * revision the commit is based on changed one of the items the commit
+     * changes (or one of their ancestors or descendants).
+     */
+    private static void checkConflicts(Commit commit, Revision head,
+            Revision base) {
+        for (Revision r = head; r != null && r.number > base.number;
+                r = r.parent) {
+            for (Change change : commit.changes) {
+                if (r.affects(change.path)) {
+                    throw new MicroKernelException("Conflicting concurrent "
+                            + "change of " + change.path + " in revision "
+                            + r.id);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------- branches
+
+    /**
+     * Creates a branch revision on top of the specified revision (a trunk
+     * revision or the revision of the same branch).
+     */
+    private Revision addBranchRevision(Revision parent, Commit commit,
+            String message) {
+        Revision revision = new Revision("br"
+                + Long.toHexString(branchCounter.incrementAndGet()),
+                parent.number, parent, commit.root,
+                System.currentTimeMillis(), message == null ? "" : message,
+                commit.changes, true);
+        revisions.put(revision.id, revision);
+        return revision;
+    }
+
+    @Override
+    public String branch(String trunkRevisionId) throws MicroKernelException {
+        Revision base = getRevision(trunkRevisionId);
+        if (base.branch) {
+            throw new MicroKernelException("Not a trunk revision: "
+                    + trunkRevisionId);
+        }
+        return addBranchRevision(base, new Commit(base.root,
+                attempts.incrementAndGet()), "").id;
+    }
+
+    /**
+     * Returns the changes of the specified branch revision and its
+     * ancestors on the branch, in commit order.
+     */
+    private static List<Change> getBranchChanges(Revision revision) {
+        List<Revision> list = new ArrayList<Revision>();
+        for (Revision r = revision; r.branch; r = r.parent) {
+            list.add(r);
+        }
+        Collections.reverse(list);
+        List<Change> changes = new ArrayList<Change>();
+        for (Revision r : list) {
+            changes.addAll(r.changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the trunk revision the specified branch revision is based on.
+     */
+    private static Revision getBranchBase(Revision revision) {
+        Revision r = revision;
+        while (r.branch) {
+            r = r.parent;
+        }
+        return r;
+    }
+
+    private Revision getBranchRevision(String branchRevisionId) {
+        Revision revision = getRevision(branchRevisionId);
+        if (!revision.branch) {
+            throw new MicroKernelException("Not a branch revision: "
+                    + branchRevisionId);
+        }
+        return revision;
+    }
+
+    /**
+     * Applies the specified changes to the specified trunk revision.
+     *
+     * @param since the trunk revision the changes are based on, conflicts
+     *            with revisions committed after it are detected
+     */
+    private Commit replay(List<Change> changes, Revision target,
+            Revision since) {
+        Commit commit = new Commit(target.root, attempts.incrementAndGet());
+        for (Change change : changes) {
+            commit.apply("/", change.jsop);
+        }
+        checkConflicts(commit, target, since);
+        return commit;
+    }
+
+    @Override
+    public String merge(String branchRevisionId, String message)
+            throws MicroKernelException {
+        Revision branch = getBranchRevision(branchRevisionId);
+        Revision branchBase = getBranchBase(branch);
+        List<Change> changes = getBranchChanges(branch);
+        while (true) {
+            Revision base = head.get();
+            Node root;
+            if (base == branchBase) {
+                // the trunk hasn't changed since the branch was created
+                root = branch.root;
+            } else {
+                root = replay(changes, base, branchBase).root;
+            }
+            Revision revision = new Revision(base.number + 1, base, root,
+                    System.currentTimeMillis(), message == null ? ""
+                            : message, changes);
+            if (head.compareAndSet(base, revision)) {
+                revisions.put(revision.id, revision);
+                if (waiting.get() > 0) {
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                }
+                return revision.id;
+            }
+        }
+    }
+
+    @Override
+    public String rebase(String branchRevisionId, String newBaseRevisionId)
+            throws MicroKernelException {
+        Revision branch = getBranchRevision(branchRevisionId);
+        Revision branchBase = getBranchBase(branch);
+        Revision newBase = getRevision(newBaseRevisionId);
+        if (newBase.branch) {
+            throw new MicroKernelException("Not a trunk revision: "
+                    + newBaseRevisionId);
+        }
+        if (newBase == branchBase) {
+            return branch.id;
+        }
+        Commit commit = replay(getBranchChanges(branch), newBase, branchBase);
+        return addBranchRevision(newBase, commit, "").id;
+    }
+
+    // ---------------------------------------------------------------- blobs
+
+    @Override
+    public long getLength(String blobId) throws MicroKernelException {
+        return getBlob(blobId).length;
+    }
+
+    @Override
+    public int read(String blobId, long pos, byte[] buff, int off, int length)
+            throws MicroKernelException {
+        Blob blob = getBlob(blobId);
+        if (pos >= blob.length) {
+            return -1;
+        }
+        int n = (int) Math.min(length, blob.length - pos);
+        // all chunks but the last one are full
+        int index = (int) (pos / BLOB_CHUNK_SIZE);
+        int start = (int) (pos % BLOB_CHUNK_SIZE);
+        for (int copied = 0; copied < n; index++, start = 0) {
+            byte[] chunk = blob.chunks.get(index);
+            int count = Math.min(n - copied, chunk.length - start);
+            System.arraycopy(chunk, start, buff, off + copied, count);
+            copied += count;
+        }
+        return n;
+    }
+
+    @Override
+    public String write(InputStream in) throws MicroKernelException {
+        try {
+            // read into a reused buffer and keep a copy of every full chunk
+            byte[] buffer = new byte[BLOB_CHUNK_SIZE];
+            List<byte[]> chunks = new ArrayList<byte[]>();
+            long length = 0;
+            int n = 0;
+            while (n != -1) {
+                int pos = 0;
+                while (pos < buffer.length) {
+                    n = in.read(buffer, pos, buffer.length - pos);
+                    if (n == -1) {
+                        break;
+                    }
+                    pos += n;
+                }
+                if (pos > 0) {
+                    length += pos;
+                    if (length > MAX_BLOB_SIZE) {
+                        throw new MicroKernelException("Blob too large: more "
+                                + "than " + MAX_BLOB_SIZE + " bytes");
+                    }
+                    chunks.add(Arrays.copyOf(buffer, pos));
+                }
+            }
+            String id = "b" + Long.toHexString(blobCounter.incrementAndGet());
+            blobs.put(id, new Blob(chunks, length));
+            return id;
+        } catch (IOException e) {
+            throw new MicroKernelException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private Blob getBlob(String blobId) {
+        Blob blob = blobs.get(blobId);
+        if (blob == null) {
+            throw new MicroKernelException("Unknown blob: " + blobId);
+        }
+        return blob;
+    }
+
+    /**
+     * Immutable blob, stored in chunks of BLOB_CHUNK_SIZE bytes (except for
+     * the last one).
+     */
+    private static class Blob {
+
+        private final List<byte[]> chunks;
+        private final long length;
+
+        public Blob(List<byte[]> chunks, long length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * Immutable revision.
+     */
+    private static class Revision {
+
+        private final long number;
+        private final String id;
+        private final Revision parent;
+        private final Node root;
+        private final long timestamp;
+        private final String message;
+        private final List<Change> changes;
+        // true for branch revisions, whose number is the one of their base
+        private final boolean branch;
+
+        /**
+         * Creates a trunk revision.
+         */
+        public Revision(long number, Revision parent, Node root,
+                long timestamp, String message, List<Change> changes) {
+            this("r" + Long.toHexString(number), number, parent, root,
+                    timestamp, message, changes, false);
+        }
+
+        public Revision(String id, long number, Revision parent, Node root,
+                long timestamp, String message, List<Change> changes,
+                boolean branch) {
+            this.number = number;
+            this.id = id;
+            this.parent = parent;
+            this.root = root;
+            this.timestamp = timestamp;
+            this.message = message;
+            this.changes = changes;
+            this.branch = branch;
+        }
+
+        /**
+         * Returns true if this revision changed the node at the specified
+         * path, one of its ancestors or one of its descendants.
+         */
+        public boolean affects(String path) {
+            for (Change change : changes) {
+                if (change.affects(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * A single JSOP operation of a revision.
+     */
+    private static class Change {
+
+        // absolute path of the changed item
+        private final String path;
+        // the operation, using absolute paths
+        private final String jsop;
+
+        public Change(String path, String jsop) {
+            this.path = path;
+            this.jsop = jsop;
+        }
+
+        public boolean affects(String path) {
+            return this.path.equals(path)
+                    || PathUtils.isAncestor(path, this.path)
+                    || PathUtils.isAncestor(this.path, path);
+        }
+
+    }
+
+    /**
+     * A node. Nodes belonging to a revision are never modified. Nodes are
+     * created by commit attempts and only the attempt owning a node (i.e. the
+     * one that created it) may modify it, until the attempt is done.
+     */
+    private static class Node {
+
+        private final long owner;
+        // property values are stored as JSON
+        private final Map<String, String> properties;
+        private final Map<String, Node> children;
+
+        public Node(long owner) {
+            this.owner = owner;
+            properties = new LinkedHashMap<String, String>();
+            children = new LinkedHashMap<String, Node>();
+        }
+
+        public Node(long owner, Node node) {
+            this.owner = owner;
+            properties = new LinkedHashMap<String, String>(node.properties);
+            children = new LinkedHashMap<String, Node>(node.children);
+        }
+
+    }
+
+    /**
+     * A commit attempt: applies JSOP operations to a copy-on-write version of
+     * a revision's tree.
+     */
+    private static class Commit {
+
+        private final long owner;
+        private Node root;
+        private final List<Change> changes;
+
+        public Commit(Node root, long owner) {
+            this.root = root;
+            this.owner = owner;
+            changes = new ArrayList<Change>();
+        }
+
+        /**
+         * Returns the modifiable version of the node at the specified
+         * absolute path, copying it and its ancestors if necessary.
+         */
+        private Node getModifiable(String path) {
+            if (root.owner != owner) {
+                root = new Node(owner, root);
+            }
+            Node node = root;
+            for (String name : PathUtils.elements(path)) {
+                Node child = node.children.get(name);
+                if (child == null) {
+                    throw new MicroKernelException("Path not found: " + path);
+                }
+                if (child.owner != owner) {
+                    child = new Node(owner, child);
+                    node.children.put(name, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        public void apply(String path, String jsonDiff) {
+            JsopTokenizer t = new JsopTokenizer(jsonDiff);
+            try {
+                while (true) {
+                    int op = t.read();
+                    if (op == JsopReader.END) {
+                        break;
+                    }
+                    apply(path, op, t);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new MicroKernelException("Invalid JSOP: " + jsonDiff, e);
+            }
+        }
+
+        /**
+         * Applies a single operation, the tokenizer is positioned after the
+         * operation character.
+         */
+        private void apply(String path, int op, JsopTokenizer t) {
+            String target = resolve(path, t.read(JsopReader.STRING));
+            switch (op) {
+            case '+': {
+                t.read(':');
+                Node node = readNode(t);
+                Node parent = getModifiable(PathUtils.getParentPath(target));
+                String name = PathUtils.getName(target);
+                if (parent.children.containsKey(name)) {
+                    throw new MicroKernelException("Node already exists: "
+                            + target);
+                }
+                parent.children.put(name, node);
+                JsopBuilder jsop = new JsopBuilder();
+                appendAdd(jsop, target, node);
+                record(target, jsop);
+                break;
+            }
+            case '-': {
+                Node parent = getModifiable(PathUtils.getParentPath(target));
+                if (parent.children.remove(PathUtils.getName(target)) == null) {
+                    throw new MicroKernelException("Node not found: " + target);
+                }
+                JsopBuilder jsop = new JsopBuilder();
+                appendRemove(jsop, target);
+                record(target, jsop);
+                break;
+            }
+            case '^': {
+                t.read(':');
+                JsopBuilder value = new JsopBuilder();
+                readValue(t, value);
+                Node parent = getModifiable(PathUtils.getParentPath(target));
+                if (value.toString().equals("null")) {
+                    parent.properties.remove(PathUtils.getName(target));
+                } else {
+                    parent.properties.put(PathUtils.getName(target),
+                            value.toString());
+                }
+                JsopBuilder jsop = new JsopBuilder();
+                appendSet(jsop, target, value.toString());
+                record(target, jsop);
+                break;
+            }
+            case '>':
+            case '*': {
+                t.read(':');
+                String destination = resolve(path, t.read(JsopReader.STRING));
+                Node node = getNode(root, target);
+                if (node == null) {
+                    throw new MicroKernelException("Node not found: " + target);
+                }
+                if (op == '>') {
+                    getModifiable(PathUtils.getParentPath(target)).children
+                            .remove(PathUtils.getName(target));
+                } else if (node.owner == owner) {
+                    // nodes must not be modifiable via two paths
+                    node = copy(node);
+                }
+                Node parent = getModifiable(PathUtils
+                        .getParentPath(destination));
+                String name = PathUtils.getName(destination);
+                if (parent.children.containsKey(name)) {
+                    throw new MicroKernelException("Node already exists: "
+                            + destination);
+                }
+                parent.children.put(name, node);
+                record(target, new JsopBuilder().tag((char) op).key(target)
+                        .value(destination));
+                record(destination, new JsopBuilder());
+                break;
+            }
+            default:
+                throw new MicroKernelException("Unsupported operation '"
+                        + (char) op + "' at position " + t.getLastPos());
+            }
+        }
+
+        private void record(String path, JsopBuilder jsop) {
+            String str = jsop.toString();
+            if (str.endsWith("\n")) {
+                str = str.substring(0, str.length() - 1);
+            }
+            changes.add(new Change(path, str));
+        }
+
+        private Node copy(Node node) {
+            Node copy = new Node(owner, node);
+            for (Entry<String, Node> entry : copy.children.entrySet()) {
+                entry.setValue(copy(entry.getValue()));
+            }
+            return copy;
+        }
+
+        private static String resolve(String path, String target) {
+            if (PathUtils.isAbsolute(target)) {
+                return target;
+            }
+            return PathUtils.concat(path, target);
+        }
+
+        /**
+         * Reads a JSON value and appends its normalized representation.
+         */
+        private void readValue(JsopTokenizer t, JsopBuilder json) {
+            if (t.getTokenType() == '{') {
+                appendNode(json, readNode(t), -1, 0, -1, false);
+            } else if (t.matches('[')) {
+                json.array();
+                if (!t.matches(']')) {
+                    do {
+                        readValue(t, json);
+                    } while (t.matches(','));
+                    t.read(']');
+                }
+                json.endArray();
+            } else if (t.getTokenType() == JsopReader.STRING) {
+                json.value(t.read(JsopReader.STRING));
+            } else if (t.matches(JsopReader.TRUE)) {
+                json.value(true);
+            } else if (t.matches(JsopReader.FALSE)) {
+                json.value(false);
+            } else if (t.matches(JsopReader.NULL)) {
+                json.encodedValue("null");
+            } else {
+                json.encodedValue(t.read(JsopReader.NUMBER));
+            }
+        }
+
+        /**
+         * Reads a JSON object and returns the (new) node it represents.
+         */
+        private Node readNode(JsopTokenizer t) {
+            t.read('{');
+            Node node = new Node(owner);
+            if (!t.matches('}')) {
+                do {
+                    String name = t.read(JsopReader.STRING);
+                    t.read(':');
+                    if (t.getTokenType() == '{') {
+                        node.children.put(name, readNode(t));
+                    } else {
+                        JsopBuilder value = new JsopBuilder();
+                        readValue(t, value);
+                        node.properties.put(name, value.toString());
+                    }
+                } while (t.matches(','));
+                t.read('}');
+            }
+            return node;
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.x42.terye.oak.mk.test.Histogram;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelMetrics.Method;
+
+/**
+ * Fixture decorator wrapping all microkernels created by another fixture into
+ * instrumented microkernels. The metrics are shared by all microkernels of
+ * the fixture and a per-method breakdown is logged after every test
+ * invocation.
+ */
+public class InstrumentedMKTestFixture implements MicroKernelTestFixture {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final MicroKernelTestFixture fixture;
+    private final MicroKernelMetrics metrics;
+    // maps instrumented microkernels to the microkernels they wrap
+    private final Map<MicroKernel, MicroKernel> mks;
+
+    public InstrumentedMKTestFixture(MicroKernelTestFixture fixture) {
+        this.fixture = fixture;
+        metrics = new MicroKernelMetrics();
+        mks = new IdentityHashMap<MicroKernel, MicroKernel>();
+    }
+
+    public MicroKernelMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public synchronized MicroKernel createMicroKernel() throws Exception {
+        MicroKernel mk = fixture.createMicroKernel();
+        MicroKernel instrumented = new InstrumentedMicroKernel(mk, metrics);
+        mks.put(instrumented, mk);
+        return instrumented;
+    }
+
+    @Override
+    public synchronized void disposeMicroKernel(MicroKernel mk)
+            throws Exception {
+        MicroKernel wrapped = mks.remove(mk);
+        if (wrapped != null) {
+            fixture.disposeMicroKernel(wrapped);
+        }
+    }
+
+    @Override
+    public void setUpBeforeTest() throws Exception {
+        metrics.reset();
+        fixture.setUpBeforeTest();
+    }
+
+    /**
+     * Seeds the wrapped fixture, i.e. seeding is not instrumented.
+     */
+    @Override
+    public void seed(Dataset dataset) throws Exception {
+        fixture.seed(dataset);
+    }
+
+    @Override
+    public synchronized void tearDownAfterTest() throws Exception {
+        logMetrics();
+        mks.clear();
+        fixture.tearDownAfterTest();
+    }
+
+    private void logMetrics() {
+        String format = "%-20s %9s %7s %12s %12s %10s %10s %10s %10s";
+        logger.debug(String.format(format, "MicroKernel method", "calls",
+                "errors", "bytes in", "bytes out", "mean (ms)", "p50",
+                "p99", "max"));
+        for (Method method : metrics.getMethods().values()) {
+            if (method.getCalls() == 0) {
+                continue;
+            }
+            Histogram h = method.getLatencies();
+            logger.debug(String.format(format, method.getName(),
+                    method.getCalls(), method.getErrors(),
+                    method.getBytesIn(), method.getBytesOut(),
+                    toMillis(h.getMean()),
+                    toMillis(h.getValueAtPercentile(50.0)),
+                    toMillis(h.getValueAtPercentile(99.0)),
+                    toMillis(h.getMax())));
+        }
+    }
+
+    private static String toMillis(double nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fixture.close();
+    }
+
+    @Override
+    public String toString() {
+        return fixture.toString();
+    }
+
+}
@@ -0,0 +1,324 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelMetrics.Method;
+
+/**
+ * MicroKernel decorator that records the metrics of every call it delegates
+ * to the wrapped microkernel.
+ */
+public class InstrumentedMicroKernel implements MicroKernel {
+
+    private final MicroKernel mk;
+    private final Method getHeadRevision;
+    private final Method getRevisionHistory;
+    private final Method waitForCommit;
+    private final Method getJournal;
+    private final Method diff;
+    private final Method nodeExists;
+    private final Method getChildNodeCount;
+    private final Method getNodes;
+    private final Method commit;
+    private final Method branch;
+    private final Method merge;
+    private final Method rebase;
+    private final Method getLength;
+    private final Method read;
+    private final Method write;
+
+    /**
+     * @param mk the microkernel to be instrumented
+     * @param metrics the metrics to be updated (might be shared by several
+     *            instrumented microkernels)
+     */
+    public InstrumentedMicroKernel(MicroKernel mk, MicroKernelMetrics metrics) {
+        this.mk = mk;
+        getHeadRevision = metrics.get("getHeadRevision");
+        getRevisionHistory = metrics.get("getRevisionHistory");
+        waitForCommit = metrics.get("waitForCommit");
+        getJournal = metrics.get("getJournal");
+        diff = metrics.get("diff");
+        nodeExists = metrics.get("nodeExists");
+        getChildNodeCount = metrics.get("getChildNodeCount");
+        getNodes = metrics.get("getNodes");
+        commit = metrics.get("commit");
+        branch = metrics.get("branch");
+        merge = metrics.get("merge");
+        rebase = metrics.get("rebase");
+        getLength = metrics.get("getLength");
+        read = metrics.get("read");
+        write = metrics.get("write");
+    }
+
+    /**
+     * Returns the wrapped microkernel.
+     */
+    public MicroKernel getMicroKernel() {
+        return mk;
+    }
+
+    private static long length(String str) {
+        return str == null ? 0 : str.length();
+    }
+
+    @Override
+    public String getHeadRevision() throws MicroKernelException {
+        long start = getHeadRevision.begin(0);
+        try {
+            String result = mk.getHeadRevision();
+            getHeadRevision.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            getHeadRevision.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getRevisionHistory(long since, int maxEntries, String path)
+            throws MicroKernelException {
+        long start = getRevisionHistory.begin(length(path));
+        try {
+            String result = mk.getRevisionHistory(since, maxEntries, path);
+            getRevisionHistory.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            getRevisionHistory.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String waitForCommit(String oldHeadRevisionId, long timeout)
+            throws MicroKernelException, InterruptedException {
+        long start = waitForCommit.begin(length(oldHeadRevisionId));
+        try {
+            String result = mk.waitForCommit(oldHeadRevisionId, timeout);
+            waitForCommit.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            waitForCommit.failure();
+            throw e;
+        } catch (InterruptedException e) {
+            waitForCommit.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getJournal(String fromRevisionId, String toRevisionId,
+            String path) throws MicroKernelException {
+        long start = getJournal.begin(length(fromRevisionId)
+                + length(toRevisionId) + length(path));
+        try {
+            String result = mk.getJournal(fromRevisionId, toRevisionId, path);
+            getJournal.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            getJournal.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String diff(String fromRevisionId, String toRevisionId,
+            String path, int depth) throws MicroKernelException {
+        long start = diff.begin(length(fromRevisionId) + length(toRevisionId)
+                + length(path));
+        try {
+            String result = mk.diff(fromRevisionId, toRevisionId, path, depth);
+            diff.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            diff.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean nodeExists(String path, String revisionId)
+            throws MicroKernelException {
+        long start = nodeExists.begin(length(path) + length(revisionId));
+        try {
+            boolean result = mk.nodeExists(path, revisionId);
+            nodeExists.success(start, 0);
+            return result;
+        } catch (RuntimeException e) {
+            nodeExists.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getChildNodeCount(String path, String revisionId)
+            throws MicroKernelException {
+        long start = getChildNodeCount.begin(length(path) + length(revisionId));
+        try {
+            long result = mk.getChildNodeCount(path, revisionId);
+            getChildNodeCount.success(start, 0);
+            return result;
+        } catch (RuntimeException e) {
+            getChildNodeCount.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getNodes(String path, String revisionId, int depth,
+            long offset, int maxChildNodes, String filter)
+            throws MicroKernelException {
+        long start = getNodes.begin(length(path) + length(revisionId)
+                + length(filter));
+        try {
+            String result = mk.getNodes(path, revisionId, depth, offset,
+                    maxChildNodes, filter);
+            getNodes.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            getNodes.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String commit(String path, String jsonDiff, String revisionId,
+            String message) throws MicroKernelException {
+        long start = commit.begin(length(path) + length(jsonDiff)
+                + length(revisionId) + length(message));
+        try {
+            String result = mk.commit(path, jsonDiff, revisionId, message);
+            commit.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            commit.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String branch(String trunkRevisionId) throws MicroKernelException {
+        long start = branch.begin(length(trunkRevisionId));
+        try {
+            String result = mk.branch(trunkRevisionId);
+            branch.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            branch.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String merge(String branchRevisionId, String message)
+            throws MicroKernelException {
+        long start = merge.begin(length(branchRevisionId) + length(message));
+        try {
+            String result = mk.merge(branchRevisionId, message);
+            merge.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            merge.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String rebase(String branchRevisionId, String newBaseRevisionId)
+            throws MicroKernelException {
+        long start = rebase.begin(length(branchRevisionId)
+                + length(newBaseRevisionId));
+        try {
+            String result = mk.rebase(branchRevisionId, newBaseRevisionId);
+            rebase.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            rebase.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getLength(String blobId) throws MicroKernelException {
+        long start = getLength.begin(length(blobId));
+        try {
+            long result = mk.getLength(blobId);
+            getLength.success(start, 0);
+            return result;
+        } catch (RuntimeException e) {
+            getLength.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(String blobId, long pos, byte[] buff, int off, int length)
+            throws MicroKernelException {
+        long start = read.begin(length(blobId));
+        try {
+            int result = mk.read(blobId, pos, buff, off, length);
+            read.success(start, result);
+            return result;
+        } catch (RuntimeException e) {
+            read.failure();
+            throw e;
+        }
+    }
+
+    @Override
+    public String write(InputStream in) throws MicroKernelException {
+        long start = write.begin(0);
+        try {
+            String result = mk.write(new CountingInputStream(in));
+            write.success(start, length(result));
+            return result;
+        } catch (RuntimeException e) {
+            write.failure();
+            throw e;
+        }
+    }
+
+    /**
+     * Input stream counting the bytes read as bytes passed to write().
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                write.addBytesIn(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                write.addBytesIn(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                write.addBytesIn(skipped);
+            }
+            return skipped;
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.x42.terye.oak.mk.test.ConcurrentHistogram;
+import ch.x42.terye.oak.mk.test.Histogram;
+import ch.x42.terye.oak.mk.test.StripedCounter;
+
+/**
+ * Metrics collected by instrumented microkernels: for every method of the
+ * MicroKernel API the number of calls, the number of calls that failed, the
+ * number of bytes passed in and returned (JSON and JSOP strings are counted
+ * by their length) and the latency distribution of the successful calls. All
+ * metrics are lock-free and can be updated concurrently.
+ */
+public class MicroKernelMetrics {
+
+    public static final String[] METHODS = {
+        "getHeadRevision", "getRevisionHistory", "waitForCommit",
+        "getJournal", "diff", "nodeExists", "getChildNodeCount",
+        "getNodes", "commit", "branch", "merge", "rebase", "getLength",
+        "read", "write"
+    };
+
+    private final Map<String, Method> methods;
+
+    public MicroKernelMetrics() {
+        Map<String, Method> map = new LinkedHashMap<String, Method>();
+        for (String name : METHODS) {
+            map.put(name, new Method(name));
+        }
+        methods = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the metrics of the method with the specified name.
+     */
+    public Method get(String name) {
+        return methods.get(name);
+    }
+
+    /**
+     * Returns the metrics of all methods (in the order of the METHODS array).
+     */
+    public Map<String, Method> getMethods() {
+        return methods;
+    }
+
+    public void reset() {
+        for (Method method : methods.values()) {
+            method.reset();
+        }
+    }
+
+    /**
+     * Metrics of one API method.
+     */
+    public static class Method {
+
+        private final String name;
+        private final StripedCounter calls;
+        private final StripedCounter errors;
+        private final StripedCounter bytesIn;
+        private final StripedCounter bytesOut;
+        private final ConcurrentHistogram latencies;
+
+        private Method(String name) {
+            this.name = name;
+            calls = new StripedCounter();
+            errors = new StripedCounter();
+            bytesIn = new StripedCounter();
+            bytesOut = new StripedCounter();
+            latencies = new ConcurrentHistogram();
+        }
+
+        /**
+         * Must be called before delegating a call.
+         *
+         * @param in the number of bytes passed to the method
+         * @return the start time to be passed to success()
+         */
+        public long begin(long in) {
+            calls.increment();
+            if (in > 0) {
+                bytesIn.add(in);
+            }
+            return System.nanoTime();
+        }
+
+        /**
+         * Must be called after a call has returned normally.
+         *
+         * @param start the value returned by begin()
+         * @param out the number of bytes returned by the method
+         */
+        public void success(long start, long out) {
+            latencies.record(System.nanoTime() - start);
+            if (out > 0) {
+                bytesOut.add(out);
+            }
+        }
+
+        /**
+         * Must be called after a call has thrown an exception.
+         */
+        public void failure() {
+            errors.increment();
+        }
+
+        /**
+         * Adds bytes passed to the method after the call has begun (e.g. when
+         * reading a stream).
+         */
+        public void addBytesIn(long in) {
+            bytesIn.add(in);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public Histogram getLatencies() {
+            return latencies.snapshot();
+        }
+
+        public void reset() {
+            calls.reset();
+            errors.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            latencies.reset();
+        }
+
+    }
+
+}
@@ -1,12 +1,15 @@
 package ch.x42.terye.oak.mk.test.fixtures;
 
+import java.io.Closeable;
+
 import org.apache.jackrabbit.mk.api.MicroKernel;
 
 /**
  * Interface definition for test fixtures that are passed as a parameter to
- * parameterized tests.
+ * parameterized tests. Fixtures are closed, i.e. all data is dropped, once
+ * all tests have been run with them.
  */
-public interface MicroKernelTestFixture {
+public interface MicroKernelTestFixture extends Closeable {
 
     public MicroKernel createMicroKernel() throws Exception;
 
@@ -14,9 +17,20 @@ public interface MicroKernelTestFixture {
 
     public void setUpBeforeTest() throws Exception;
 
+    /**
+     * Makes the repository contain the specified dataset. The dataset is
+     * created the first time, subsequent calls with the same dataset restore
+     * it. Unlike other data, seeded data is kept after a test and only
+     * dropped when another dataset is seeded or the fixture is closed. A
+     * growable dataset containing the seeded dataset is created by growing
+     * the seeded dataset.
+     */
+    public void seed(Dataset dataset) throws Exception;
+
     /**
      * This method must dispose of all microkernels created by this fixture that
-     * have not explicitely been disposed of.
+     * have not explicitely been disposed of. Unless a dataset has been seeded,
+     * all data must be dropped.
      */
     public void tearDownAfterTest() throws Exception;
 
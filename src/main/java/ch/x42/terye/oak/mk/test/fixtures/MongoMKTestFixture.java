@@ -11,7 +11,7 @@ import org.apache.jackrabbit.mongomk.impl.blob.MongoGridFSBlobStore;
 
 import com.mongodb.DB;
 
-public class MongoMKTestFixture implements MicroKernelTestFixture {
+public class MongoMKTestFixture extends AbstractMKTestFixture {
 
     private static final String MONGODB_HOST = "localhost";
     private static final int MONGODB_PORT = 27017;
@@ -54,11 +54,18 @@ public class MongoMKTestFixture implements MicroKernelTestFixture {
         for (MongoMicroKernel mk : mks) {
             mk.dispose();
         }
+        // clear list so that the microkernels can be gc'd
+        mks.clear();
+        if (!isSeeded()) {
+            dropData();
+        }
+    }
+
+    @Override
+    protected void dropData() throws Exception {
         // drop collections
         new MongoConnection(MONGODB_HOST, MONGODB_PORT, MONGODB_DB).getDB()
                 .dropDatabase();
-        // clear list so that the microkernels can be gc'd
-        mks.clear();
     }
 
     @Override
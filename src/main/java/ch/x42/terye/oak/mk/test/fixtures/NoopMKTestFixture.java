@@ -0,0 +1,48 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+
+import ch.x42.terye.oak.mk.test.Calibration;
+
+/**
+ * Fixture for the no-op microkernel. Running a test with this fixture
+ * measures the overhead of the test itself (generating requests, measuring
+ * latencies etc.), which the runner compares to the results of the other
+ * fixtures.
+ */
+public class NoopMKTestFixture extends AbstractMKTestFixture implements
+        Calibration {
+
+    private final MicroKernel mk = new NoopMicroKernel();
+
+    @Override
+    public MicroKernel createMicroKernel() throws Exception {
+        return mk;
+    }
+
+    @Override
+    public void disposeMicroKernel(MicroKernel mk) throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    public void setUpBeforeTest() throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    public void tearDownAfterTest() throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    protected void dropData() throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    public String toString() {
+        return "NoopMicroKernel";
+    }
+
+}
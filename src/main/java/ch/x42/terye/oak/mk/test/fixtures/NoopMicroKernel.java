@@ -0,0 +1,114 @@
+package ch.x42.terye.oak.mk.test.fixtures;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+
+/**
+ * Microkernel that does nothing and returns constant results. It is used to
+ * measure the overhead of the tests themselves.
+ */
+public class NoopMicroKernel implements MicroKernel {
+
+    private static final String REVISION = "r0";
+
+    @Override
+    public String getHeadRevision() throws MicroKernelException {
+        return REVISION;
+    }
+
+    @Override
+    public String getRevisionHistory(long since, int maxEntries, String path)
+            throws MicroKernelException {
+        return "[]";
+    }
+
+    @Override
+    public String waitForCommit(String oldHeadRevisionId, long timeout)
+            throws MicroKernelException, InterruptedException {
+        return REVISION;
+    }
+
+    @Override
+    public String getJournal(String fromRevisionId, String toRevisionId,
+            String path) throws MicroKernelException {
+        return "[]";
+    }
+
+    @Override
+    public String diff(String fromRevisionId, String toRevisionId,
+            String path, int depth) throws MicroKernelException {
+        return "";
+    }
+
+    @Override
+    public boolean nodeExists(String path, String revisionId)
+            throws MicroKernelException {
+        return true;
+    }
+
+    @Override
+    public long getChildNodeCount(String path, String revisionId)
+            throws MicroKernelException {
+        return 0;
+    }
+
+    @Override
+    public String getNodes(String path, String revisionId, int depth,
+            long offset, int maxChildNodes, String filter)
+            throws MicroKernelException {
+        return "{\":childNodeCount\":0}";
+    }
+
+    @Override
+    public String commit(String path, String jsonDiff, String revisionId,
+            String message) throws MicroKernelException {
+        return REVISION;
+    }
+
+    @Override
+    public String branch(String trunkRevisionId) throws MicroKernelException {
+        return REVISION;
+    }
+
+    @Override
+    public String merge(String branchRevisionId, String message)
+            throws MicroKernelException {
+        return REVISION;
+    }
+
+    @Override
+    public String rebase(String branchRevisionId, String newBaseRevisionId)
+            throws MicroKernelException {
+        return REVISION;
+    }
+
+    @Override
+    public long getLength(String blobId) throws MicroKernelException {
+        return 0;
+    }
+
+    @Override
+    public int read(String blobId, long pos, byte[] buff, int off, int length)
+            throws MicroKernelException {
+        return -1;
+    }
+
+    @Override
+    public String write(InputStream in) throws MicroKernelException {
+        try {
+            // consume the stream, as producing it is part of the overhead
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+            in.close();
+            return "b0";
+        } catch (IOException e) {
+            throw new MicroKernelException(e);
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Input stream of blob data for uploads. The data is taken from a direct
+ * buffer of random bytes, which is repeated as often as necessary, so that
+ * blobs of any size can be uploaded without reading files or allocating
+ * memory proportional to the size. A source can be reused for several
+ * uploads (see reset()).
+ */
+public class BlobSource extends InputStream {
+
+    private final ByteBuffer data;
+    // number of bytes left to be read
+    private long remaining;
+
+    /**
+     * @param data the buffer containing the data to be repeated, shared
+     *            with other sources (its position and limit are not used)
+     */
+    public BlobSource(ByteBuffer data) {
+        this.data = data.duplicate();
+        this.data.clear();
+    }
+
+    /**
+     * Allocates a direct buffer of the specified capacity and fills it with
+     * random bytes.
+     */
+    public static ByteBuffer createData(int capacity, long seed) {
+        ByteBuffer data = ByteBuffer.allocateDirect(capacity);
+        Random random = new Random(seed);
+        while (data.hasRemaining()) {
+            data.put((byte) random.nextInt());
+        }
+        data.clear();
+        return data;
+    }
+
+    /**
+     * Makes the stream provide a new blob of the specified length.
+     */
+    public void reset(long length) {
+        remaining = length;
+        data.clear();
+    }
+
+    @Override
+    public int read() {
+        if (remaining == 0) {
+            return -1;
+        }
+        if (!data.hasRemaining()) {
+            data.clear();
+        }
+        remaining--;
+        return data.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        if (!data.hasRemaining()) {
+            data.clear();
+        }
+        int n = (int) Math.min(Math.min(len, remaining), data.remaining());
+        data.get(b, off, n);
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, data.remaining());
+    }
+
+    @Override
+    public void close() {
+        // the stream stays usable, see reset()
+    }
+
+}
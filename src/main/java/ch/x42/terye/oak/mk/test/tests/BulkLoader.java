@@ -0,0 +1,263 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.x42.terye.oak.mk.test.BatchSizeController;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * Loads trees of the same shape as the ones committed by TreeCommitter, but
+ * in parallel: the trees are partitioned into subtrees (work units) which are
+ * distributed among a number of loaders. Every loader commits using its own
+ * microkernel and is fed by its own generator thread, so that the JSOP of the
+ * next batches is generated while a commit is in flight. The number of nodes
+ * per commit is either fixed or adapted by a BatchSizeController.
+ */
+public class BulkLoader {
+
+    /**
+     * Default number of nodes per commit.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(BulkLoader.class);
+
+    // number of work units per loader to aim for
+    private static final int UNITS_PER_LOADER = 4;
+    // number of batches a generator may be ahead of its loader
+    private static final int QUEUE_CAPACITY = 4;
+    // marks the end of the batches of a generator
+    private static final Batch END = new Batch(0, "");
+
+    private final MicroKernelTestFixture fixture;
+    private final int nbLoaders;
+    private final int batchSize;
+    // adapts the batch size, if set
+    private BatchSizeController controller;
+    // number of nodes committed
+    private final AtomicLong nbNodes;
+
+    /**
+     * @param fixture the fixture creating the microkernels of the loaders
+     * @param nbLoaders the number of loaders
+     * @param batchSize the number of nodes per commit
+     */
+    public BulkLoader(MicroKernelTestFixture fixture, int nbLoaders,
+            int batchSize) {
+        this.fixture = fixture;
+        this.nbLoaders = nbLoaders;
+        this.batchSize = batchSize;
+        nbNodes = new AtomicLong();
+    }
+
+    /**
+     * Sets the controller adapting the number of nodes per commit (the batch
+     * size passed to the constructor is ignored).
+     */
+    public void setBatchSizeController(BatchSizeController controller) {
+        this.controller = controller;
+    }
+
+    private int getBatchSize() {
+        return controller == null ? batchSize : controller.getBatchSize();
+    }
+
+    /**
+     * Loads a tree of the specified shape below each of the specified
+     * (already existing) nodes.
+     *
+     * @param roots absolute paths of the root nodes of the trees
+     * @param height the height of the trees
+     * @param branchingFactor the branching factor of the trees
+     * @return the number of nodes loaded
+     */
+    public long load(List<String> roots, int height, int branchingFactor)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        nbNodes.set(0);
+        List<MicroKernel> mks = new ArrayList<MicroKernel>();
+        ExecutorService executor = Executors.newFixedThreadPool(2 * nbLoaders);
+        try {
+            for (int i = 0; i < nbLoaders; i++) {
+                mks.add(fixture.createMicroKernel());
+            }
+            // split the trees until there are enough units to balance the
+            // load among the loaders
+            List<String> units = new ArrayList<String>(roots);
+            while (units.size() < nbLoaders * UNITS_PER_LOADER && height > 1) {
+                units = split(mks.get(0), units, branchingFactor);
+                height--;
+            }
+            Queue<String> queue = new ConcurrentLinkedQueue<String>(units);
+            List<Future<Void>> loaders = new LinkedList<Future<Void>>();
+            List<Future<Void>> generators = new LinkedList<Future<Void>>();
+            for (MicroKernel mk : mks) {
+                BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(
+                        QUEUE_CAPACITY);
+                generators.add(executor.submit(new Generator(queue, height,
+                        branchingFactor, batches)));
+                loaders.add(executor.submit(new Loader(mk, batches)));
+            }
+            executor.shutdown();
+            // wait for the loaders first: a generator whose loader failed
+            // blocks until interrupted
+            for (Future<Void> future : loaders) {
+                future.get();
+            }
+            for (Future<Void> future : generators) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            for (MicroKernel mk : mks) {
+                fixture.disposeMicroKernel(mk);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        logger.debug(String.format("Loaded %d nodes in %d ms using %d "
+                + "loaders (%.1f nodes/s)", nbNodes.get(), elapsed, nbLoaders,
+                nbNodes.get() / Math.max(elapsed / 1000.0, 0.001)));
+        if (controller != null) {
+            logger.debug("Load batch size: " + controller.getBatchSize()
+                    + (controller.isConverged() ? " (converged)"
+                            : " (exploring)"));
+        }
+        return nbNodes.get();
+    }
+
+    /**
+     * Commits the child nodes of the specified nodes and returns their paths.
+     */
+    private List<String> split(MicroKernel mk, List<String> units,
+            int branchingFactor) {
+        List<String> children = new ArrayList<String>();
+        JsopBatch batch = new JsopBatch();
+        for (String unit : units) {
+            for (int i = 0; i < branchingFactor; i++) {
+                batch.addNode(unit, TreeCommitter.NODE_PREFIX, i);
+                children.add(unit + "/" + TreeCommitter.NODE_PREFIX + i);
+            }
+        }
+        mk.commit("", batch.flush(), null, "");
+        nbNodes.addAndGet(children.size());
+        return children;
+    }
+
+    /**
+     * Generates the JSOP batches of the work units it takes from the queue
+     * until the queue is empty.
+     */
+    private class Generator implements Callable<Void> {
+
+        private final Queue<String> units;
+        private final int height;
+        private final int branchingFactor;
+        private final BlockingQueue<Batch> batches;
+        private final JsopBatch batch;
+
+        public Generator(Queue<String> units, int height,
+                int branchingFactor, BlockingQueue<Batch> batches) {
+            this.units = units;
+            this.height = height;
+            this.branchingFactor = branchingFactor;
+            this.batches = batches;
+            batch = new JsopBatch();
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                String unit;
+                while ((unit = units.poll()) != null) {
+                    generate(new TreePath(unit, branchingFactor, height),
+                            height);
+                }
+                if (batch.size() > 0) {
+                    batches.put(new Batch(batch.size(), batch.flush()));
+                }
+            } finally {
+                batches.put(END);
+            }
+            return null;
+        }
+
+        /**
+         * Generates the nodes of a subtree in pre-order, i.e. parents are
+         * always committed before their children.
+         */
+        private void generate(TreePath path, int height)
+                throws InterruptedException {
+            for (int i = 0; i < branchingFactor; i++) {
+                path.child(i);
+                batch.addNode(path);
+                if (batch.size() >= getBatchSize()) {
+                    batches.put(new Batch(batch.size(), batch.flush()));
+                }
+                if (height > 1) {
+                    generate(path, height - 1);
+                }
+                path.parent();
+            }
+        }
+
+    }
+
+    /**
+     * Commits the batches of a generator.
+     */
+    private class Loader implements Callable<Void> {
+
+        private final MicroKernel mk;
+        private final BlockingQueue<Batch> batches;
+
+        public Loader(MicroKernel mk, BlockingQueue<Batch> batches) {
+            this.mk = mk;
+            this.batches = batches;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Batch batch;
+            while ((batch = batches.take()) != END) {
+                long start = System.nanoTime();
+                mk.commit("", batch.jsop, null, "");
+                if (controller != null) {
+                    controller.record(batch.count, System.nanoTime() - start);
+                }
+                nbNodes.addAndGet(batch.count);
+            }
+            return null;
+        }
+
+    }
+
+    private static class Batch {
+
+        private final String jsop;
+        // number of nodes added by the batch
+        private final int count;
+
+        public Batch(int count, String jsop) {
+            this.jsop = jsop;
+            this.count = count;
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.x42.terye.oak.mk.test.fixtures.Dataset;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * Dataset consisting of a long revision history. Below PATH there are
+ * NB_SUBTREES subtrees (subtree_0, subtree_1, ...) of NB_NODES nodes each
+ * (node_0, node_1, ...) with a counter property. Each of the historyLength
+ * commits sets the counter of one of the nodes, going through the subtrees
+ * round-robin, so that a subtree is changed by every NB_SUBTREES-th commit
+ * and a node by every (NB_SUBTREES * NB_NODES)-th commit.
+ * <p>
+ * In order to allow tests to find old revisions, the ids of the revisions
+ * 1, 10, 100, ... commits before the last commit of the history as well as
+ * of the revision the history starts at are stored as string properties of
+ * CHECKPOINTS (see getCheckpointProperty()) by a final commit.
+ */
+public class HistoryDataset implements Dataset {
+
+    public static final String PATH = "/history";
+    public static final String CHECKPOINTS = PATH + "/checkpoints";
+    public static final String PROPERTY = "counter";
+    public static final int NB_SUBTREES = 10;
+    public static final int NB_NODES = 10;
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(HistoryDataset.class);
+
+    private final int historyLength;
+
+    /**
+     * @param historyLength the number of commits of the history
+     */
+    public HistoryDataset(int historyLength) {
+        this.historyLength = historyLength;
+    }
+
+    @Override
+    public String getName() {
+        return "history[length=" + historyLength + "]";
+    }
+
+    /**
+     * Returns the name of the property of CHECKPOINTS holding the id of the
+     * revision the specified number of commits before the last commit of the
+     * history.
+     */
+    public static String getCheckpointProperty(int distance) {
+        return "distance_" + distance;
+    }
+
+    /**
+     * Returns the path of the node changed by the commit with the specified
+     * (zero-based) number.
+     */
+    public static String getNodePath(long commit) {
+        return PATH + "/subtree_" + commit % NB_SUBTREES + "/node_"
+                + commit / NB_SUBTREES % NB_NODES;
+    }
+
+    @Override
+    public void create(MicroKernelTestFixture fixture) throws Exception {
+        MicroKernel mk = fixture.createMicroKernel();
+        try {
+            StringBuilder jsop = new StringBuilder();
+            jsop.append("+\"" + PATH + "\":{} ");
+            jsop.append("+\"" + CHECKPOINTS + "\":{} ");
+            for (int i = 0; i < NB_SUBTREES; i++) {
+                String subtree = PATH + "/subtree_" + i;
+                jsop.append("+\"" + subtree + "\":{} ");
+                for (int j = 0; j < NB_NODES; j++) {
+                    jsop.append("+\"" + subtree + "/node_" + j + "\":{\""
+                            + PROPERTY + "\":0} ");
+                }
+            }
+            String revisionId = mk.commit("", jsop.toString(), null, "");
+
+            // revision ids by distance to the last commit
+            Map<Integer, String> checkpoints =
+                    new LinkedHashMap<Integer, String>();
+            long start = System.nanoTime();
+            for (int i = 0; i < historyLength; i++) {
+                int distance = historyLength - i;
+                if (i == 0 || isPowerOfTen(distance)) {
+                    checkpoints.put(distance, revisionId);
+                }
+                revisionId = mk.commit("", "^\"" + getNodePath(i) + "/"
+                        + PROPERTY + "\":" + (i + 1), null, "");
+            }
+            long time = System.nanoTime() - start;
+            logger.debug(String.format("Committed %d revisions in %d ms "
+                    + "(%.1f commits/s)", historyLength, time / 1000000,
+                    historyLength * 1000000000.0 / Math.max(1, time)));
+
+            jsop.setLength(0);
+            for (Entry<Integer, String> entry : checkpoints.entrySet()) {
+                jsop.append("^\"" + CHECKPOINTS + "/"
+                        + getCheckpointProperty(entry.getKey()) + "\":\""
+                        + entry.getValue() + "\" ");
+            }
+            mk.commit("", jsop.toString(), null, "");
+        } finally {
+            fixture.disposeMicroKernel(mk);
+        }
+    }
+
+    private static boolean isPowerOfTen(int n) {
+        while (n >= 10 && n % 10 == 0) {
+            n /= 10;
+        }
+        return n == 1;
+    }
+
+}
@@ -0,0 +1,82 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+/**
+ * Reusable builder of JSOP batches. Statements are appended to a buffer that
+ * keeps its capacity when the batch is flushed, so that a worker building all
+ * of its batches with the same instance does not produce any garbage apart
+ * from the strings passed to the microkernel.
+ */
+public class JsopBatch {
+
+    private final StringBuilder jsop;
+    // number of statements in the batch
+    private int size;
+
+    public JsopBatch() {
+        jsop = new StringBuilder(1024);
+    }
+
+    /**
+     * Appends a statement adding an empty node.
+     */
+    public void addNode(CharSequence path) {
+        jsop.append("+\"").append(path).append("\":{} ");
+        size++;
+    }
+
+    /**
+     * Appends a statement adding an empty node named after the specified
+     * prefix and number.
+     */
+    public void addNode(CharSequence parent, String prefix, int nb) {
+        jsop.append("+\"");
+        appendPath(parent, prefix, nb);
+        jsop.append("\":{} ");
+        size++;
+    }
+
+    /**
+     * Appends a statement setting the property named after the specified
+     * prefix and number.
+     *
+     * @param value the JSON representation of the value
+     */
+    public void setProperty(CharSequence parent, String prefix, int nb,
+            String value) {
+        jsop.append("^\"");
+        appendPath(parent, prefix, nb);
+        jsop.append("\":").append(value).append(' ');
+        size++;
+    }
+
+    private void appendPath(CharSequence parent, String prefix, int nb) {
+        jsop.append(parent);
+        if (parent.length() > 0 && parent.charAt(parent.length() - 1) != '/') {
+            jsop.append('/');
+        }
+        jsop.append(prefix).append(nb);
+    }
+
+    /**
+     * Returns the number of statements in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the JSOP of the batch and clears the batch.
+     */
+    public String flush() {
+        String str = jsop.toString();
+        jsop.setLength(0);
+        size = 0;
+        return str;
+    }
+
+    @Override
+    public String toString() {
+        return jsop.toString();
+    }
+
+}
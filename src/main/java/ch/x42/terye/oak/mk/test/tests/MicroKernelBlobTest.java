@@ -0,0 +1,233 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the throughput of blob uploads and downloads. Each of
+ * nbUploaders uploaders writes nbUploads blobs of blobSize bytes while each
+ * of nbDownloaders downloaders performs nbDownloads reads of blobs uploaded
+ * before the run: with probability pctPartialReads a read of readSize bytes
+ * at a random offset, otherwise a read of the whole blob. The size can be
+ * given with a K, M or G suffix (e.g. 1K to 1G).
+ * <p>
+ * The uploaded data comes from a direct buffer of random bytes which is
+ * repeated as often as necessary (see BlobSource) and the downloaded data is
+ * read into a buffer reused by the downloader, so that neither generating nor
+ * consuming the data is measured. After every run, the throughput in MB/s of
+ * uploads, whole and partial reads is logged.
+ */
+public class MicroKernelBlobTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_WRITE = "write";
+    private static final String OPERATION_READ = "read";
+    private static final String OPERATION_READ_PARTIAL = "readPartial";
+    // size of the buffer repeated by the blob sources
+    private static final int DATA_SIZE = 1 << 20;
+    // size of the buffer whole blobs are read with
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final long blobSize;
+    private final int nbUploaders;
+    private final int nbDownloaders;
+    // number of blobs to be uploaded by each uploader
+    private final int nbUploads;
+    // number of reads to be performed by each downloader
+    private final int nbDownloads;
+    // number of blobs uploaded before the run for the downloaders
+    private final int nbBlobs;
+    private final int readSize;
+    private final double pctPartialReads;
+    // shared by all blob sources
+    private final ByteBuffer data;
+
+    public List<Worker> workers;
+    private List<String> blobIds;
+    // number of bytes transferred during the current run
+    private AtomicLong bytesWritten;
+    private AtomicLong bytesRead;
+    private AtomicLong bytesReadPartially;
+
+    public MicroKernelBlobTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        blobSize = parseSize(workload.get("blobSize", "1M"));
+        nbUploaders = workload.getInt("nbUploaders", 1);
+        nbDownloaders = workload.getInt("nbDownloaders", 1);
+        nbUploads = workload.getInt("nbUploads", 10);
+        nbDownloads = workload.getInt("nbDownloads", 10);
+        nbBlobs = workload.getInt("nbBlobs", 1);
+        readSize = (int) parseSize(workload.get("readSize", "64K"));
+        pctPartialReads = workload.getDouble("pctPartialReads", 0.5);
+        data = BlobSource.createData(DATA_SIZE, 0);
+    }
+
+    /**
+     * Parses a number of bytes with an optional K, M or G suffix.
+     */
+    private static long parseSize(String size) {
+        size = size.trim().toUpperCase();
+        long unit = 1;
+        if (size.endsWith("K")) {
+            unit = 1L << 10;
+        } else if (size.endsWith("M")) {
+            unit = 1L << 20;
+        } else if (size.endsWith("G")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+        return Long.parseLong(size) * unit;
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Blob size: " + blobSize + " bytes");
+        logger.debug("Number of uploaders: " + nbUploaders);
+        logger.debug("Number of downloaders: " + nbDownloaders);
+
+        // upload the blobs to be read
+        blobIds = new LinkedList<String>();
+        if (nbDownloaders > 0) {
+            logger.debug("Uploading " + nbBlobs + " blobs");
+            MicroKernel mk = getClientMicroKernel(0);
+            BlobSource source = new BlobSource(data);
+            for (int i = 0; i < nbBlobs; i++) {
+                source.reset(blobSize);
+                blobIds.add(mk.write(source));
+            }
+        }
+
+        // create workers
+        logger.debug("Creating workers");
+        bytesWritten = new AtomicLong();
+        bytesRead = new AtomicLong();
+        bytesReadPartially = new AtomicLong();
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbUploaders; i++) {
+            workers.add(new Uploader(getClientMicroKernel(i)));
+        }
+        for (int i = 0; i < nbDownloaders; i++) {
+            workers.add(new Downloader(getClientMicroKernel(nbUploaders + i)));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 1, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+        if (timer == null) {
+            return;
+        }
+        double seconds = timer.getLastOperationsTime() / 1000000000.0;
+        logger.debug(String.format("Write: %.1f MB/s, read: %.1f MB/s, "
+                + "partial read: %.1f MB/s", toMegabytes(bytesWritten.get())
+                / seconds, toMegabytes(bytesRead.get()) / seconds,
+                toMegabytes(bytesReadPartially.get()) / seconds));
+    }
+
+    private static double toMegabytes(long bytes) {
+        return bytes / (double) (1 << 20);
+    }
+
+    private class Uploader extends Worker {
+
+        private MicroKernel mk;
+        private BlobSource source;
+
+        public Uploader(MicroKernel mk) {
+            super(OPERATION_WRITE);
+            this.mk = mk;
+            source = new BlobSource(data);
+        }
+
+        @Override
+        protected String work() throws Exception {
+            for (int i = 0; isRunning(i < nbUploads); i++) {
+                source.reset(blobSize);
+                long start = beginOperation();
+                mk.write(source);
+                endOperation(OPERATION_WRITE, start);
+                if (isMeasuring(start)) {
+                    bytesWritten.addAndGet(blobSize);
+                }
+            }
+            return null;
+        }
+
+    }
+
+    private class Downloader extends Worker {
+
+        private MicroKernel mk;
+        private Random random;
+        private String[] ids;
+        private byte[] buffer;
+
+        public Downloader(MicroKernel mk) {
+            super(OPERATION_READ, OPERATION_READ_PARTIAL);
+            this.mk = mk;
+            random = new Random(hashCode());
+            ids = blobIds.toArray(new String[blobIds.size()]);
+            buffer = new byte[(int) Math.min(blobSize, Math.max(CHUNK_SIZE,
+                    readSize))];
+        }
+
+        @Override
+        protected String work() throws Exception {
+            for (int i = 0; isRunning(i < nbDownloads); i++) {
+                String id = ids[random.nextInt(ids.length)];
+                if (random.nextDouble() < pctPartialReads) {
+                    int length = (int) Math.min(readSize, blobSize);
+                    long offset = (long) (random.nextDouble() * (blobSize
+                            - length + 1));
+                    long start = beginOperation();
+                    long n = read(id, offset, length);
+                    endOperation(OPERATION_READ_PARTIAL, start);
+                    if (isMeasuring(start)) {
+                        bytesReadPartially.addAndGet(n);
+                    }
+                } else {
+                    long start = beginOperation();
+                    long n = read(id, 0, mk.getLength(id));
+                    endOperation(OPERATION_READ, start);
+                    if (isMeasuring(start)) {
+                        bytesRead.addAndGet(n);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads the specified range of a blob and returns the number of
+         * bytes read.
+         */
+        private long read(String id, long offset, long length) {
+            long total = 0;
+            while (total < length) {
+                int n = mk.read(id, offset + total, buffer, 0, (int) Math.min(
+                        buffer.length, length - total));
+                if (n <= 0) {
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the performance of branches, which is how large changes
+ * are committed by the session layer. Each thread creates nbBranches
+ * branches one after the other: it branches from the head revision, commits
+ * branchCommits commits of commitRate statements each on the branch and then
+ * merges the branch. Every thread maintains its own branch, so the number of
+ * concurrent branches is the number of threads.
+ * <p>
+ * The statements add nodes below a node of the thread's own. With
+ * probability overlap, a statement instead sets one of a few properties of a
+ * node shared by all threads, so that merges of concurrent branches can
+ * conflict. Conflicting merges are not retried, other failures of merges make
+ * the test fail. The latencies of branch creation, in-branch commits and
+ * merges are reported separately and the merge conflict rate is logged after
+ * every run.
+ */
+public class MicroKernelBranchMergeTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_BRANCH = "branch";
+    private static final String OPERATION_BRANCH_COMMIT = "branchCommit";
+    private static final String OPERATION_MERGE = "merge";
+    private static final String ROOT = "/branches";
+    // number of properties of the shared node
+    private static final int NB_SHARED_PROPERTIES = 10;
+
+    private final int nbThreads;
+    // number of branches to be created by each thread
+    private final int nbBranches;
+    private final int branchCommits;
+    private final int commitRate;
+    // probability of a statement changing the shared node
+    private final double overlap;
+
+    public List<Worker> workers;
+    // counters of the current run
+    private AtomicLong nbMerges;
+    private AtomicLong nbConflicts;
+
+    public MicroKernelBranchMergeTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        nbBranches = workload.getInt("nbBranches", 100);
+        branchCommits = workload.getInt("branchCommits", 10);
+        commitRate = workload.getInt("commitRate", 10);
+        overlap = workload.getDouble("overlap", 0.0);
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("Commits per branch: " + branchCommits);
+        logger.debug("Statements per commit: " + commitRate);
+        logger.debug(String.format("Overlap: %.0f%%", overlap * 100.0));
+
+        // create the shared node and the nodes of the threads
+        MicroKernel mk = getClientMicroKernel(0);
+        StringBuilder jsop = new StringBuilder();
+        jsop.append("+\"" + ROOT + "\":{} ");
+        jsop.append("+\"" + ROOT + "/shared\":{} ");
+        for (int i = 0; i < nbThreads; i++) {
+            jsop.append("+\"" + ROOT + "/node_" + i + "\":{} ");
+        }
+        mk.commit("", jsop.toString(), null, "");
+
+        // create workers
+        logger.debug("Creating workers");
+        nbMerges = new AtomicLong();
+        nbConflicts = new AtomicLong();
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            workers.add(new Brancher(getClientMicroKernel(i), ROOT + "/node_"
+                    + i));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+        long merges = nbMerges.get();
+        long conflicts = nbConflicts.get();
+        logger.debug(String.format("Merge conflicts: %d of %d merges (%.1f%%)",
+                conflicts, merges, merges == 0 ? 0.0 : conflicts * 100.0
+                        / merges));
+    }
+
+    private class Brancher extends Worker {
+
+        private MicroKernel mk;
+        private String node;
+        private Random random;
+        private JsopBatch batch;
+        // number of nodes added by this worker
+        private int nbNodes;
+
+        /**
+         * @param mk the microkernel used to commit
+         * @param node the path of the node only this worker adds nodes to
+         */
+        public Brancher(MicroKernel mk, String node) {
+            super(OPERATION_BRANCH, OPERATION_BRANCH_COMMIT, OPERATION_MERGE);
+            this.mk = mk;
+            this.node = node;
+            random = new Random(hashCode());
+            batch = new JsopBatch();
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            for (int i = 0; isRunning(i < nbBranches); i++) {
+                long start = beginOperation();
+                String branchId = mk.branch(null);
+                endOperation(OPERATION_BRANCH, start);
+                for (int j = 0; j < branchCommits; j++) {
+                    for (int k = 0; k < commitRate; k++) {
+                        addStatement();
+                    }
+                    start = beginOperation();
+                    branchId = mk.commit("", batch.flush(), branchId, "");
+                    endOperation(OPERATION_BRANCH_COMMIT, start);
+                }
+                start = beginOperation();
+                try {
+                    revisionId = mk.merge(branchId, "");
+                    endOperation(OPERATION_MERGE, start);
+                    if (isMeasuring(start)) {
+                        nbMerges.incrementAndGet();
+                    }
+                } catch (MicroKernelException e) {
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                    if (isMeasuring(start)) {
+                        nbMerges.incrementAndGet();
+                        nbConflicts.incrementAndGet();
+                    }
+                }
+            }
+            return revisionId;
+        }
+
+        private void addStatement() {
+            if (random.nextDouble() < overlap) {
+                batch.setProperty(ROOT + "/shared", "property_",
+                        random.nextInt(NB_SHARED_PROPERTIES),
+                        Integer.toString(random.nextInt()));
+            } else {
+                batch.addNode(node, TreeCommitter.NODE_PREFIX, nbNodes++);
+            }
+        }
+
+    }
+
+}
@@ -3,16 +3,13 @@ package ch.x42.terye.oak.mk.test.tests;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.jackrabbit.mk.api.MicroKernel;
 import org.junit.Before;
 
 import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
 import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
 
 /**
@@ -21,73 +18,67 @@ import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
  */
 public class MicroKernelConcurrentReadTest extends MicroKernelPerformanceTest {
 
-    private static final int NB_THREADS = Runtime.getRuntime()
-            .availableProcessors();
-    private static final int TREE_HEIGHT = 5;
-    private static final int TREE_BRANCHING_FACTOR = 6;
+    private static final String OPERATION_GET_NODES = "getNodes";
+
+    private final int nbThreads;
+    // number of subtrees of the initial tree
+    private final int nbSubtrees;
+    private final int treeHeight;
+    private final int treeBranchingFactor;
     // number of read operations to be performed by each thread
-    private static final int NB_READS = 5000;
+    private final int nbReads;
     // percentage of read operations from the preferred subtree
-    private static final double PCT_LOCAL_READS = 0.8;
-
-    public List<Callable<String>> workers;
-
-    public MicroKernelConcurrentReadTest(MicroKernelTestFixture fixture) {
-        super(fixture);
+    private final double pctLocalReads;
+
+    public List<Worker> workers;
+
+    public MicroKernelConcurrentReadTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        treeHeight = workload.getInt("treeHeight", 5);
+        treeBranchingFactor = workload.getInt("branchingFactor", 6);
+        nbSubtrees = getNbSubtrees(treeHeight, treeBranchingFactor);
+        nbReads = workload.getInt("nbReads", 5000);
+        pctLocalReads = workload.getDouble("pctLocalReads", 0.8);
     }
 
     @Before
     public void setUpTest() throws Exception {
         // log info
-        logger.debug("Number of threads: " + NB_THREADS);
-        logger.debug("Creating initial tree");
-
-        // commit initial tree
-        MicroKernel mk = fixture.createMicroKernel();
-        for (int i = 0; i < NB_THREADS; i++) {
-            // commit the root nodes of the subtrees
-            String node = "node_" + i;
-            mk.commit("/", "+\"" + node + "\":{}", null, "");
-            TreeCommitter committer = new TreeCommitter(mk, "/" + node,
-                    TREE_HEIGHT, TREE_BRANCHING_FACTOR, 1000);
-            committer.call();
-        }
-        fixture.disposeMicroKernel(mk);
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("Number of subtrees: " + nbSubtrees);
+        logger.debug("Number of nodes: " + nbSubtrees
+                * TreeDataset.getSubtreeSize(treeHeight, treeBranchingFactor));
+        logger.debug("Seeding initial tree");
+
+        // seed initial tree (only created once for all runs)
+        fixture.seed(createTreeDataset(nbSubtrees, treeHeight,
+                treeBranchingFactor));
 
         // create workers
         logger.debug("Creating workers");
-        workers = new LinkedList<Callable<String>>();
-        for (int i = 0; i < NB_THREADS; i++) {
-            mk = fixture.createMicroKernel();
-            Callable<String> worker = new Reader(mk, i);
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            MicroKernel mk = getClientMicroKernel(i);
+            Worker worker = new Reader(mk, i % nbSubtrees);
             workers.add(worker);
         }
     }
 
     @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
     public void test() throws Exception {
-        // run them
-        logger.debug("Starting concurrent worker execution");
-        ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
-        List<Future<String>> futures = new LinkedList<Future<String>>();
-        for (Callable<String> worker : workers) {
-            futures.add(executor.submit(worker));
-        }
-        executor.shutdown();
-        executor.awaitTermination(60, TimeUnit.MINUTES);
-        // get return value of workers (this forces exceptions that might have
-        // happened during execution to be re-thrown)
-        for (Future<String> future : futures) {
-            future.get();
-        }
-        logger.debug("All workers are done");
+        runWorkers(workers, 60, TimeUnit.MINUTES);
     }
 
-    private class Reader implements Callable<String> {
+    private class Reader extends Worker {
 
         private MicroKernel mk;
         private int preferred;
         private Random random;
+        private TreePath path;
+        // probability of picking a node on each level of a subtree
+        private double[] probabilities;
 
         /**
          * @param mk the microkernel used to commit
@@ -95,28 +86,42 @@ public class MicroKernelConcurrentReadTest extends MicroKernelPerformanceTest {
          *            preferred subtree to read from
          */
         public Reader(MicroKernel mk, int preferred) {
+            super(OPERATION_GET_NODES);
             this.mk = mk;
             this.preferred = preferred;
             this.random = new Random(hashCode());
+            path = new TreePath("/", treeBranchingFactor, treeHeight);
+            // compute probability of a node: 1 / nb of nodes in the subtree
+            double nb = (Math.pow(treeBranchingFactor, treeHeight) - 1)
+                    / (treeBranchingFactor - 1);
+            double nodeProbability = 1.0 / nb;
+            // probability of picking a node on a level: probability of a
+            // node * nb of nodes on that level
+            probabilities = new double[treeHeight];
+            for (int i = 0; i < treeHeight; i++) {
+                probabilities[i] = nodeProbability
+                        * Math.pow(treeBranchingFactor, i);
+            }
         }
 
         @Override
-        public String call() throws Exception {
-            for (int i = 0; i <= NB_READS; i++) {
+        protected String work() throws Exception {
+            for (int i = 0; isRunning(i <= nbReads); i++) {
                 // read the preferred subtree
                 int index = preferred;
-                if (TREE_BRANCHING_FACTOR > 1
-                        && random.nextDouble() >= PCT_LOCAL_READS) {
+                if (nbSubtrees > 1 && random.nextDouble() >= pctLocalReads) {
                     // read any other subtree
                     while (index == preferred) {
-                        index = random.nextInt(TREE_BRANCHING_FACTOR);
+                        index = random.nextInt(nbSubtrees);
                     }
                 }
                 // generate random path in that subtree
                 String path = generatePath(index);
                 // random depth
                 int randomDepth = getRandomDepth();
+                long start = beginOperation();
                 mk.getNodes(path, null, randomDepth, 0, -1, null);
+                endOperation(OPERATION_GET_NODES, start);
             }
             return null;
         }
@@ -134,25 +139,17 @@ public class MicroKernelConcurrentReadTest extends MicroKernelPerformanceTest {
          * subtree with specified index.
          */
         private String generatePath(int index) {
-            String prefix = TreeCommitter.NODE_PREFIX;
-            String path = prefix + index;
-            // compute probability of a node: 1 / nb of nodes in the subtree
-            double nb = (Math.pow(TREE_BRANCHING_FACTOR, TREE_HEIGHT) - 1)
-                    / (TREE_BRANCHING_FACTOR - 1);
-            double nodeProbability = 1.0 / nb;
+            path.first(0);
+            path.child(index);
             // loop through levels of the subtree
-            for (int i = 0; i < TREE_HEIGHT - 1; i++) {
-                // probability of picking a node on this level: probability of a
-                // node * nb of nodes on that level
-                double probability = nodeProbability
-                        * Math.pow(TREE_BRANCHING_FACTOR, i);
-                if (random.nextDouble() < probability) {
+            for (int i = 0; i < treeHeight - 1; i++) {
+                if (random.nextDouble() < probabilities[i]) {
                     break;
                 }
                 // choose random node on that level
-                path += "/" + prefix + random.nextInt(TREE_BRANCHING_FACTOR);
+                path.child(random.nextInt(treeBranchingFactor));
             }
-            return "/" + path;
+            return path.toString();
         }
 
     }
@@ -3,18 +3,15 @@ package ch.x42.terye.oak.mk.test.tests;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.mk.api.MicroKernel;
-import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.junit.Before;
 
+import ch.x42.terye.oak.mk.test.BatchSizeController;
 import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
 import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
 
 /**
@@ -23,79 +20,78 @@ import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
  */
 public class MicroKernelConcurrentUpdateTest extends MicroKernelPerformanceTest {
 
-    private static final int NB_THREADS = Runtime.getRuntime()
-            .availableProcessors();
-    private static final int TREE_HEIGHT = 5;
-    private static final int TREE_BRANCHING_FACTOR = 7;
+    private final int nbThreads;
+    // number of subtrees of the initial tree
+    private final int nbSubtrees;
+    private final int treeHeight;
+    private final int treeBranchingFactor;
     // number of updates to be performed by each thread
-    private static final int NB_UPDATES = 10000;
+    private final int nbUpdates;
     // percentage of updates to the preferred subtree
-    private static final double PCT_LOCAL_UPDATES = 0.8;
+    private final double pctLocalUpdates;
     // percentage of adding nodes as opposed to setting properties
-    private static final double PCT_ADD_NODES = 0.5;
-    private static final int COMMIT_RATE = 200;
+    private final double pctAddNodes;
+    private final int commitRate;
+    // adapts the commit rate, if enabled (shared by all runs)
+    private final BatchSizeController controller;
 
-    public List<Callable<String>> workers;
+    public List<Worker> workers;
     private AtomicInteger counter;
 
-    public MicroKernelConcurrentUpdateTest(MicroKernelTestFixture ctx) {
-        super(ctx);
+    public MicroKernelConcurrentUpdateTest(MicroKernelTestFixture ctx,
+            Workload workload) {
+        super(ctx, workload);
+        nbThreads = getNbThreads();
+        treeHeight = workload.getInt("treeHeight", 5);
+        treeBranchingFactor = workload.getInt("branchingFactor", 7);
+        nbSubtrees = getNbSubtrees(treeHeight, treeBranchingFactor);
+        nbUpdates = workload.getInt("nbUpdates", 10000);
+        pctLocalUpdates = workload.getDouble("pctLocalUpdates", 0.8);
+        pctAddNodes = workload.getDouble("pctAddNodes", 0.5);
+        commitRate = workload.getInt("commitRate", 200);
+        controller = createBatchSizeController(commitRate);
     }
 
     @Before
     public void setUpTest() throws Exception {
         // log info
-        logger.debug("Number of threads: " + NB_THREADS);
-        logger.debug("Creating initial tree");
-
-        // commit initial tree
-        MicroKernel mk = fixture.createMicroKernel();
-        for (int i = 0; i < NB_THREADS; i++) {
-            // commit the root nodes of the subtrees
-            String node = "node_" + i;
-            mk.commit("/", "+\"" + node + "\":{}", null, "");
-            TreeCommitter committer = new TreeCommitter(mk, "/" + node,
-                    TREE_HEIGHT, TREE_BRANCHING_FACTOR, 1000);
-            committer.call();
-        }
-        fixture.disposeMicroKernel(mk);
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("Number of subtrees: " + nbSubtrees);
+        logger.debug("Number of nodes: " + nbSubtrees
+                * TreeDataset.getSubtreeSize(treeHeight, treeBranchingFactor));
+        logger.debug("Seeding initial tree");
+
+        // seed initial tree (only created once for all runs)
+        fixture.seed(createTreeDataset(nbSubtrees, treeHeight,
+                treeBranchingFactor));
 
         // create workers
         logger.debug("Creating workers");
-        counter = new AtomicInteger(TREE_BRANCHING_FACTOR);
-        workers = new LinkedList<Callable<String>>();
-        for (int i = 0; i < NB_THREADS; i++) {
+        counter = new AtomicInteger(treeBranchingFactor);
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
             // create worker
-            mk = fixture.createMicroKernel();
-            Callable<String> worker = new Updater(mk, i);
+            MicroKernel mk = getClientMicroKernel(i);
+            Worker worker = new Updater(mk, i % nbSubtrees);
             workers.add(worker);
         }
     }
 
     @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
     public void test() throws Exception {
-        // run them
-        logger.debug("Starting concurrent worker execution");
-        ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
-        List<Future<String>> futures = new LinkedList<Future<String>>();
-        for (Callable<String> worker : workers) {
-            futures.add(executor.submit(worker));
-        }
-        executor.shutdown();
-        executor.awaitTermination(60, TimeUnit.SECONDS);
-        // get return value of workers (this forces exceptions that might have
-        // happened during execution to be re-thrown)
-        for (Future<String> future : futures) {
-            future.get();
-        }
-        logger.debug("All workers are done");
+        runWorkers(workers, 60, TimeUnit.SECONDS);
+        logBatchSizes(controller);
     }
 
-    private class Updater implements Callable<String> {
+    private class Updater extends Worker {
 
         private MicroKernel mk;
         private int preferred;
         private Random random;
+        private JsopBatch batch;
+        private TreePath path;
+        // probability of stopping the descent at each level of a subtree
+        private double[] probabilities;
 
         /**
          * @param mk the microkernel used to commit
@@ -103,73 +99,85 @@ public class MicroKernelConcurrentUpdateTest extends MicroKernelPerformanceTest
          *            preferred subtree to be updated
          */
         public Updater(MicroKernel mk, int preferred) {
+            super(TreeCommitter.OPERATION_COMMIT);
             this.mk = mk;
             this.preferred = preferred;
             this.random = new Random(hashCode());
+            batch = new JsopBatch();
+            path = new TreePath("", treeBranchingFactor, treeHeight);
+            double nodeProbability = 1.0 / (int) ((Math.pow(
+                    treeBranchingFactor, treeHeight + 1) - 1) / (treeBranchingFactor - 1));
+            probabilities = new double[treeHeight];
+            for (int i = 0; i < treeHeight; i++) {
+                probabilities[i] = nodeProbability
+                        * Math.pow(treeBranchingFactor, i);
+            }
         }
 
         @Override
-        public String call() throws Exception {
+        protected String work() throws Exception {
             String revisionId = null;
-            String batch = "";
-            int batchCount = 0;
-            for (int i = 0; i <= NB_UPDATES; i++) {
+            for (int i = 0; isRunning(i <= nbUpdates); i++) {
                 // generate statement
                 // update the preferred subtree
                 int index = preferred;
-                if (NB_THREADS > 1 && random.nextDouble() >= PCT_LOCAL_UPDATES) {
+                if (nbSubtrees > 1 && random.nextDouble() >= pctLocalUpdates) {
                     // update any other subtree
                     while (index == preferred) {
-                        index = random.nextInt(NB_THREADS);
+                        index = random.nextInt(nbSubtrees);
                     }
                 }
                 // add new statement to batch for later commit
-                batch += generateStatement(index);
-                batchCount++;
+                addStatement(index);
                 // commit batch
-                if (batchCount == COMMIT_RATE) {
-                    revisionId = mk.commit("/", batch, null, "");
-                    batch = "";
-                    batchCount = 0;
+                int rate = controller == null ? commitRate : controller
+                        .getBatchSize();
+                if (batch.size() >= rate) {
+                    revisionId = commit();
                 }
             }
             // commit remaining statements, if any
-            if (batchCount > 0) {
-                // commit batch
-                revisionId = mk.commit("/", batch, null, "");
+            if (batch.size() > 0) {
+                revisionId = commit();
             }
             // return last revision id
             return revisionId;
         }
 
+        private String commit() {
+            int nbStatements = batch.size();
+            long start = beginOperation();
+            String revisionId = mk.commit("/", batch.flush(), null, "");
+            endOperation(TreeCommitter.OPERATION_COMMIT, start);
+            if (controller != null) {
+                controller.record(nbStatements, System.nanoTime() - start);
+            }
+            return revisionId;
+        }
+
         /**
-         * This generates a "add node" or "set property" statement at a
-         * (uniformly distributed) random node in the subtree with the specified
-         * index.
+         * This adds a "add node" or "set property" statement at a (uniformly
+         * distributed) random node in the subtree with the specified index to
+         * the batch.
          */
-        private String generateStatement(int index) {
+        private void addStatement(int index) {
             // generate the path of a random node
-            String prefix = TreeCommitter.NODE_PREFIX;
-            String path = prefix + index;
-            double nodeProbability = 1.0 / (int) ((Math.pow(
-                    TREE_BRANCHING_FACTOR, TREE_HEIGHT + 1) - 1) / (TREE_BRANCHING_FACTOR - 1));
-            for (int i = 0; i < TREE_HEIGHT - 1; i++) {
-                if (random.nextDouble() < nodeProbability
-                        * Math.pow(TREE_BRANCHING_FACTOR, i)) {
+            path.first(0);
+            path.child(index);
+            for (int i = 0; i < treeHeight - 1; i++) {
+                if (random.nextDouble() < probabilities[i]) {
                     break;
                 }
-                path += "/" + prefix + random.nextInt(TREE_BRANCHING_FACTOR);
+                path.child(random.nextInt(treeBranchingFactor));
             }
             // generate statement
             int nb = counter.incrementAndGet();
-            if (random.nextDouble() < PCT_ADD_NODES) {
+            if (random.nextDouble() < pctAddNodes) {
                 // add a new child node
-                path = PathUtils.concat(path, "node_" + nb);
-                return "+\"" + path + "\":{}";
+                batch.addNode(path, "node_", nb);
             } else {
                 // set a random property
-                path = PathUtils.concat(path, "property_" + nb);
-                return "^\"" + path + "\": \"abcd\"";
+                batch.setProperty(path, "property_", nb, "\"abcd\"");
             }
         }
 
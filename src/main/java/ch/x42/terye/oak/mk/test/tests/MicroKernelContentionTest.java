@@ -0,0 +1,201 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the cost of conflicting commits. Every thread performs
+ * nbUpdates read-modify-write updates of a counter property: it reads the
+ * counter at the head revision and commits the incremented value based on
+ * that revision, so that the update fails if the counter has been changed
+ * concurrently. With probability overlap, an update targets a hot node
+ * shared by all threads, otherwise a node of its own, i.e. 0 means no
+ * contention and 1 means that all threads update the same node.
+ * <p>
+ * Conflicting commits (see isConflict()) are retried after a randomized
+ * exponential backoff starting at backoff milliseconds, up to maxRetries
+ * times. Other failures of commits make the test fail. The latency of an
+ * update includes its retries and only successful updates count towards the
+ * throughput. After every run, the conflict rate and the number of retries
+ * per successful update are logged.
+ */
+public class MicroKernelContentionTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_UPDATE = "update";
+    private static final String ROOT = "/contention";
+    private static final String PROPERTY = "counter";
+    // upper bound of the backoff in milliseconds
+    private static final double MAX_BACKOFF = 100.0;
+
+    private final int nbThreads;
+    // number of updates to be performed by each thread
+    private final int nbUpdates;
+    // probability of updating the hot node
+    private final double overlap;
+    private final int maxRetries;
+    // initial backoff in nanoseconds
+    private final long backoff;
+
+    public List<Worker> workers;
+    // counters of the current run
+    private AtomicLong nbCommits;
+    private AtomicLong nbConflicts;
+    private AtomicLong nbFailures;
+
+    public MicroKernelContentionTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        nbUpdates = workload.getInt("nbUpdates", 1000);
+        overlap = workload.getDouble("overlap", 0.5);
+        maxRetries = workload.getInt("maxRetries", 10);
+        backoff = (long) (workload.getDouble("backoff", 1.0) * 1000000.0);
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug(String.format("Overlap: %.0f%%", overlap * 100.0));
+
+        // create the hot node and the nodes of the threads
+        MicroKernel mk = getClientMicroKernel(0);
+        StringBuilder jsop = new StringBuilder();
+        jsop.append("+\"" + ROOT + "\":{} ");
+        jsop.append("+\"" + ROOT + "/hot\":{\"" + PROPERTY + "\":0} ");
+        for (int i = 0; i < nbThreads; i++) {
+            jsop.append("+\"" + ROOT + "/node_" + i + "\":{\"" + PROPERTY
+                    + "\":0} ");
+        }
+        mk.commit("", jsop.toString(), null, "");
+
+        // create workers
+        logger.debug("Creating workers");
+        nbCommits = new AtomicLong();
+        nbConflicts = new AtomicLong();
+        nbFailures = new AtomicLong();
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            workers.add(new Updater(getClientMicroKernel(i), ROOT + "/node_"
+                    + i));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+        long commits = nbCommits.get();
+        long conflicts = nbConflicts.get();
+        long successes = commits - conflicts;
+        logger.debug(String.format("Conflicts: %d of %d commits (%.1f%%), "
+                + "retries per successful update: %.3f, failed updates: %d",
+                conflicts, commits, commits == 0 ? 0.0 : conflicts * 100.0
+                        / commits, successes == 0 ? 0.0 : conflicts
+                        / (double) successes, nbFailures.get()));
+    }
+
+    private class Updater extends Worker {
+
+        private MicroKernel mk;
+        private String node;
+        private Random random;
+
+        /**
+         * @param mk the microkernel used to commit
+         * @param node the path of the node only this worker updates
+         */
+        public Updater(MicroKernel mk, String node) {
+            super(OPERATION_UPDATE);
+            this.mk = mk;
+            this.node = node;
+            random = new Random(hashCode());
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            for (int i = 0; isRunning(i < nbUpdates); i++) {
+                String path = random.nextDouble() < overlap ? ROOT + "/hot"
+                        : node;
+                long start = beginOperation();
+                String id = update(path, start);
+                if (id != null) {
+                    endOperation(OPERATION_UPDATE, start);
+                    revisionId = id;
+                }
+            }
+            return revisionId;
+        }
+
+        /**
+         * Increments the counter of the specified node, retrying on
+         * conflicts. Returns the revision id, or null if all retries failed.
+         */
+        private String update(String path, long start) {
+            boolean measuring = isMeasuring(start);
+            for (int retry = 0;; retry++) {
+                String base = mk.getHeadRevision();
+                String json = mk.getNodes(path, base, 0, 0, -1, null);
+                long value = getCounter(json);
+                try {
+                    String id = mk.commit("", "^\"" + path + "/" + PROPERTY
+                            + "\":" + (value + 1), base, "");
+                    if (measuring) {
+                        nbCommits.incrementAndGet();
+                    }
+                    return id;
+                } catch (MicroKernelException e) {
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                    if (measuring) {
+                        nbCommits.incrementAndGet();
+                        nbConflicts.incrementAndGet();
+                    }
+                    if (retry >= maxRetries) {
+                        if (measuring) {
+                            nbFailures.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }
+                backOff(retry);
+            }
+        }
+
+        /**
+         * Waits for a random time between zero and backoff * 2^retry, but
+         * at most MAX_BACKOFF (full jitter).
+         */
+        private void backOff(int retry) {
+            double max = Math.min(backoff * Math.pow(2, retry),
+                    MAX_BACKOFF * 1000000.0);
+            LockSupport.parkNanos((long) (random.nextDouble() * max));
+        }
+
+        private long getCounter(String json) {
+            String key = "\"" + PROPERTY + "\":";
+            int start = json.indexOf(key) + key.length();
+            int end = start;
+            while (end < json.length()
+                    && Character.isDigit(json.charAt(end))) {
+                end++;
+            }
+            return Long.parseLong(json.substring(start, end));
+        }
+
+    }
+
+}
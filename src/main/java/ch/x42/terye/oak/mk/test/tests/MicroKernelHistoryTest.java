@@ -0,0 +1,251 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the performance of the calls observation relies on,
+ * getRevisionHistory(), getJournal() and diff(), on a long revision history
+ * (see HistoryDataset). The calls span from a revision distance commits
+ * before the end of the history (rounded down to a power of ten, by default
+ * the whole history) to the head revision. Each call is made with three path
+ * filters: the root node, a subtree changed by every tenth commit and a node
+ * changed by every hundredth commit.
+ * <p>
+ * Every thread performs nbOperations calls, cycling through the calls and
+ * filters, while nbCommitters committers keep changing the same nodes as the
+ * history at writeRate commits per second each. Running the test with
+ * several values of historyLength shows how the latencies grow with the
+ * length of the history. After every run, the mean size of the responses is
+ * logged per call, and the heap used by the test JVM (which includes the
+ * repository of in-memory microkernels) is logged after seeding and after
+ * every run.
+ */
+public class MicroKernelHistoryTest extends MicroKernelPerformanceTest {
+
+    private static final String[] CALLS = {
+        "getRevisionHistory", "getJournal", "diff"
+    };
+    private static final String[] FILTERS = {
+        "root", "subtree", "node"
+    };
+    private static final String[] PATHS = {
+        "/", HistoryDataset.PATH + "/subtree_0",
+        HistoryDataset.getNodePath(0)
+    };
+
+    private final int nbThreads;
+    private final int historyLength;
+    // number of commits between the oldest revision and the end of the history
+    private final int distance;
+    // number of calls to be made by each thread
+    private final int nbOperations;
+    private final int nbCommitters;
+    // commits per second and committer, 0 for as fast as possible
+    private final double writeRate;
+    private final String[] operations;
+
+    public List<Worker> workers;
+    // the revision the calls start at and its timestamp
+    private String fromRevisionId;
+    private long since;
+    private AtomicInteger nbActiveReaders;
+    // total size of the responses by operation
+    private AtomicLongArray responseSizes;
+    private AtomicLongArray responseCounts;
+
+    public MicroKernelHistoryTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        historyLength = Math.max(1, workload.getInt("historyLength", 10000));
+        int d = Math.min(workload.getInt("distance", historyLength),
+                historyLength);
+        if (d < historyLength) {
+            int power = 1;
+            while (power * 10L <= d) {
+                power *= 10;
+            }
+            d = power;
+        }
+        distance = d;
+        nbOperations = workload.getInt("nbOperations", 90);
+        nbCommitters = workload.getInt("nbCommitters", 1);
+        writeRate = workload.getDouble("writeRate", 10.0);
+        operations = new String[CALLS.length * FILTERS.length];
+        for (int i = 0; i < CALLS.length; i++) {
+            for (int j = 0; j < FILTERS.length; j++) {
+                operations[i * FILTERS.length + j] = CALLS[i] + "["
+                        + FILTERS[j] + "]";
+            }
+        }
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("History length: " + historyLength);
+        logger.debug("Distance: " + distance);
+        logger.debug("Number of committers: " + nbCommitters);
+        logger.debug("Seeding history");
+
+        // seed history (only created once for all runs)
+        fixture.seed(new HistoryDataset(historyLength));
+        logHeapUsage();
+
+        // look up the revision the calls start at
+        MicroKernel mk = getClientMicroKernel(0);
+        String json = mk.getNodes(HistoryDataset.CHECKPOINTS, null, 0, 0, -1,
+                null);
+        fromRevisionId = getString(json, HistoryDataset
+                .getCheckpointProperty(distance));
+        json = mk.getJournal(fromRevisionId, fromRevisionId, null);
+        since = getLong(json, "ts");
+
+        // create workers
+        logger.debug("Creating workers");
+        nbActiveReaders = new AtomicInteger(nbThreads);
+        responseSizes = new AtomicLongArray(operations.length);
+        responseCounts = new AtomicLongArray(operations.length);
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            workers.add(new Reader(getClientMicroKernel(i), i));
+        }
+        for (int i = 0; i < nbCommitters; i++) {
+            workers.add(new Committer(getClientMicroKernel(nbThreads + i)));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 1, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+        for (int i = 0; i < operations.length; i++) {
+            long count = responseCounts.get(i);
+            if (count > 0) {
+                logger.debug(String.format("%s: mean response size %.1f KB",
+                        operations[i], responseSizes.get(i) / 1024.0 / count));
+            }
+        }
+        logHeapUsage();
+    }
+
+    private void logHeapUsage() {
+        // no GC is forced, the value includes garbage not collected yet
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage();
+        logger.debug(String.format("Heap used: %.1f MB",
+                heap.getUsed() / 1048576.0));
+    }
+
+    private static String getString(String json, String key) {
+        String prefix = "\"" + key + "\":\"";
+        int start = json.indexOf(prefix);
+        if (start < 0) {
+            throw new IllegalStateException("No property " + key + " in "
+                    + json);
+        }
+        start += prefix.length();
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    private static long getLong(String json, String key) {
+        String prefix = "\"" + key + "\":";
+        int start = json.indexOf(prefix) + prefix.length();
+        int end = start;
+        while (end < json.length() && Character.isDigit(json.charAt(end))) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end));
+    }
+
+    private class Reader extends Worker {
+
+        private MicroKernel mk;
+        // index of the first operation, so that the threads don't perform
+        // the same operations at the same time
+        private int first;
+
+        public Reader(MicroKernel mk, int first) {
+            super(operations);
+            this.mk = mk;
+            this.first = first;
+        }
+
+        @Override
+        protected String work() throws Exception {
+            try {
+                for (int i = 0; isRunning(i < nbOperations); i++) {
+                    int operation = (first + i) % operations.length;
+                    String path = PATHS[operation % FILTERS.length];
+                    long start = beginOperation();
+                    String response;
+                    switch (operation / FILTERS.length) {
+                    case 0:
+                        response = mk.getRevisionHistory(since, -1, path);
+                        break;
+                    case 1:
+                        response = mk.getJournal(fromRevisionId, null, path);
+                        break;
+                    default:
+                        response = mk.diff(fromRevisionId, null, path, -1);
+                    }
+                    endOperation(operations[operation], start);
+                    if (isMeasuring(start)) {
+                        responseSizes.addAndGet(operation, response.length());
+                        responseCounts.incrementAndGet(operation);
+                    }
+                }
+            } finally {
+                nbActiveReaders.decrementAndGet();
+            }
+            return null;
+        }
+
+    }
+
+    private class Committer extends Worker {
+
+        private MicroKernel mk;
+        private Random random;
+
+        public Committer(MicroKernel mk) {
+            // the commits of the committers are spread evenly
+            super(writeRate, TreeCommitter.OPERATION_COMMIT);
+            this.mk = mk;
+            random = new Random(hashCode());
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            // commit until all readers are done
+            while (isRunning(nbActiveReaders.get() > 0)) {
+                String path = HistoryDataset.getNodePath(random
+                        .nextInt(HistoryDataset.NB_SUBTREES
+                                * HistoryDataset.NB_NODES));
+                long start = beginOperation();
+                revisionId = mk.commit("", "^\"" + path + "/"
+                        + HistoryDataset.PROPERTY + "\":" + random.nextInt(),
+                        null, "");
+                endOperation(TreeCommitter.OPERATION_COMMIT, start);
+            }
+            return revisionId;
+        }
+
+    }
+
+}
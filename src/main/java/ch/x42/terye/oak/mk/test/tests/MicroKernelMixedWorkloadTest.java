@@ -0,0 +1,317 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the performance of many threads concurrently reading
+ * and writing an existing tree, so that reads and writes interfere. Every
+ * thread (client) performs nbOperations operations, each of which is chosen
+ * at random according to the operation mix of the workload. The mixes are
+ * modeled after the YCSB core workloads:
+ * <ul>
+ * <li>A: 50% reads, 50% updates</li>
+ * <li>B: 95% reads, 5% updates</li>
+ * <li>C: 100% reads</li>
+ * <li>D: 95% reads, 5% inserts, reads favor recently inserted nodes</li>
+ * <li>E: 95% scans, 5% inserts</li>
+ * <li>F: 50% reads, 50% read-modify-writes</li>
+ * </ul>
+ * A read gets a single node, a scan gets a node and up to scanLength of its
+ * child nodes, an update sets one of the properties of a node, an insert
+ * adds a child node and a read-modify-write reads a node and then updates
+ * it. Every write is committed on its own. Unless D is used, the nodes are
+ * chosen uniformly among all nodes of the tree. The mix can be overridden by
+ * the readProportion, updateProportion, insertProportion, scanProportion and
+ * readModifyWriteProportion keys. The latency and throughput of each
+ * operation type are reported separately.
+ */
+public class MicroKernelMixedWorkloadTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_READ = "read";
+    private static final String OPERATION_UPDATE = "update";
+    private static final String OPERATION_INSERT = "insert";
+    private static final String OPERATION_SCAN = "scan";
+    private static final String OPERATION_READ_MODIFY_WRITE = "readModifyWrite";
+
+    private static final String[] OPERATIONS = {
+        OPERATION_READ, OPERATION_UPDATE, OPERATION_INSERT, OPERATION_SCAN,
+        OPERATION_READ_MODIFY_WRITE
+    };
+
+    // proportions of the operations above for the YCSB core workloads
+    private static final Map<String, double[]> MIXES =
+            new LinkedHashMap<String, double[]>();
+    static {
+        MIXES.put("A", new double[] {
+            0.5, 0.5, 0.0, 0.0, 0.0
+        });
+        MIXES.put("B", new double[] {
+            0.95, 0.05, 0.0, 0.0, 0.0
+        });
+        MIXES.put("C", new double[] {
+            1.0, 0.0, 0.0, 0.0, 0.0
+        });
+        MIXES.put("D", new double[] {
+            0.95, 0.0, 0.05, 0.0, 0.0
+        });
+        MIXES.put("E", new double[] {
+            0.0, 0.0, 0.05, 0.95, 0.0
+        });
+        MIXES.put("F", new double[] {
+            0.5, 0.0, 0.0, 0.0, 0.5
+        });
+    }
+
+    // number of properties per node an update chooses from
+    private static final int NB_PROPERTIES = 10;
+    // number of recently inserted nodes the reads of mix D choose from
+    private static final int NB_RECENT = 1024;
+
+    private final int nbThreads;
+    private final int nbSubtrees;
+    private final int treeHeight;
+    private final int treeBranchingFactor;
+    // number of operations to be performed by each thread
+    private final int nbOperations;
+    private final int scanLength;
+    private final String mix;
+    // cumulative proportions of the operations
+    private final double[] thresholds;
+    // whether reads favor recently inserted nodes
+    private final boolean readLatest;
+    // names of the operations with a proportion greater than zero
+    private final String[] operations;
+
+    public List<Worker> workers;
+    private AtomicInteger counter;
+    // paths of the most recently inserted nodes (ring buffer)
+    private AtomicReferenceArray<String> recent;
+    private AtomicLong nbInserted;
+
+    public MicroKernelMixedWorkloadTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        treeHeight = workload.getInt("treeHeight", 4);
+        treeBranchingFactor = workload.getInt("branchingFactor", 6);
+        nbSubtrees = getNbSubtrees(treeHeight, treeBranchingFactor);
+        nbOperations = workload.getInt("nbOperations", 10000);
+        scanLength = workload.getInt("scanLength", 100);
+        mix = workload.get("mix", "A").toUpperCase();
+        double[] proportions = MIXES.get(mix);
+        if (proportions == null) {
+            throw new IllegalArgumentException("Unknown operation mix: " + mix);
+        }
+        thresholds = new double[OPERATIONS.length];
+        double sum = 0.0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            sum += workload.getDouble(OPERATIONS[i] + "Proportion",
+                    proportions[i]);
+            thresholds[i] = sum;
+        }
+        if (sum <= 0.0) {
+            throw new IllegalArgumentException("No operations in the mix");
+        }
+        List<String> names = new LinkedList<String>();
+        double previous = 0.0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (thresholds[i] > previous) {
+                names.add(OPERATIONS[i]);
+            }
+            previous = thresholds[i];
+            thresholds[i] /= sum;
+        }
+        operations = names.toArray(new String[names.size()]);
+        readLatest = mix.equals("D");
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("Operation mix " + mix + ": " + getMixString());
+        logger.debug("Number of subtrees: " + nbSubtrees);
+        logger.debug("Number of nodes: " + nbSubtrees
+                * TreeDataset.getSubtreeSize(treeHeight, treeBranchingFactor));
+        logger.debug("Seeding initial tree");
+
+        // seed initial tree (only created once for all runs)
+        fixture.seed(createTreeDataset(nbSubtrees, treeHeight,
+                treeBranchingFactor));
+
+        // the nodes inserted by previous runs have been reverted
+        counter = new AtomicInteger(treeBranchingFactor);
+        recent = new AtomicReferenceArray<String>(NB_RECENT);
+        nbInserted = new AtomicLong();
+
+        // create workers
+        logger.debug("Creating workers");
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            workers.add(new Client(getClientMicroKernel(i)));
+        }
+    }
+
+    private String getMixString() {
+        String str = "";
+        double previous = 0.0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (thresholds[i] > previous) {
+                str += String.format("%s%s %.1f%%", str.isEmpty() ? "" : ", ",
+                        OPERATIONS[i], (thresholds[i] - previous) * 100.0);
+            }
+            previous = thresholds[i];
+        }
+        return str;
+    }
+
+    @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+    }
+
+    private class Client extends Worker {
+
+        private MicroKernel mk;
+        private Random random;
+        private JsopBatch batch;
+        private TreePath path;
+        // probability of stopping the descent at each level of a subtree,
+        // given that the level has been reached
+        private double[] probabilities;
+
+        public Client(MicroKernel mk) {
+            super(operations);
+            this.mk = mk;
+            random = new Random(hashCode());
+            batch = new JsopBatch();
+            path = new TreePath("/", treeBranchingFactor, treeHeight + 1);
+            // a node is picked uniformly if the descent stops on a level with
+            // the ratio of the nodes on that level to the nodes on that level
+            // and below
+            probabilities = new double[treeHeight + 1];
+            double below = 0.0;
+            for (int i = treeHeight; i >= 0; i--) {
+                double level = Math.pow(treeBranchingFactor, i);
+                below += level;
+                probabilities[i] = level / below;
+            }
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            for (int i = 0; isRunning(i < nbOperations); i++) {
+                double r = random.nextDouble();
+                int operation = 0;
+                while (operation < thresholds.length - 1
+                        && r >= thresholds[operation]) {
+                    operation++;
+                }
+                String id = perform(OPERATIONS[operation]);
+                if (id != null) {
+                    revisionId = id;
+                }
+            }
+            return revisionId;
+        }
+
+        /**
+         * Performs an operation and returns the revision id if it committed.
+         */
+        private String perform(String operation) {
+            if (operation.equals(OPERATION_READ)) {
+                CharSequence node = readLatest ? getRecentNode()
+                        : getRandomNode();
+                long start = beginOperation();
+                mk.getNodes(node.toString(), null, 0, 0, -1, null);
+                endOperation(operation, start);
+                return null;
+            } else if (operation.equals(OPERATION_SCAN)) {
+                String node = getRandomNode().toString();
+                long start = beginOperation();
+                mk.getNodes(node, null, 1, 0, scanLength, null);
+                endOperation(operation, start);
+                return null;
+            } else if (operation.equals(OPERATION_UPDATE)) {
+                batch.setProperty(getRandomNode(), "property_",
+                        random.nextInt(NB_PROPERTIES), "\"abcd\"");
+                long start = beginOperation();
+                String revisionId = mk.commit("", batch.flush(), null, "");
+                endOperation(operation, start);
+                return revisionId;
+            } else if (operation.equals(OPERATION_INSERT)) {
+                CharSequence parent = getRandomNode();
+                int nb = counter.incrementAndGet();
+                batch.addNode(parent, TreeCommitter.NODE_PREFIX, nb);
+                String node = parent + "/" + TreeCommitter.NODE_PREFIX + nb;
+                long start = beginOperation();
+                String revisionId = mk.commit("", batch.flush(), null, "");
+                endOperation(operation, start);
+                // make the node available to the reads
+                recent.set((int) (nbInserted.getAndIncrement() % NB_RECENT),
+                        node);
+                return revisionId;
+            } else {
+                String node = getRandomNode().toString();
+                batch.setProperty(node, "property_",
+                        random.nextInt(NB_PROPERTIES), "\"abcd\"");
+                long start = beginOperation();
+                mk.getNodes(node, null, 0, 0, -1, null);
+                String revisionId = mk.commit("", batch.flush(), null, "");
+                endOperation(operation, start);
+                return revisionId;
+            }
+        }
+
+        /**
+         * Returns the path of a node picked uniformly among all nodes of the
+         * initial tree (the path is only valid until the next call).
+         */
+        private CharSequence getRandomNode() {
+            path.first(0);
+            path.child(random.nextInt(nbSubtrees));
+            for (int i = 0; i < treeHeight; i++) {
+                if (random.nextDouble() < probabilities[i]) {
+                    break;
+                }
+                path.child(random.nextInt(treeBranchingFactor));
+            }
+            return path;
+        }
+
+        /**
+         * Returns the path of a recently inserted node, the more recent the
+         * more likely, or a random node if none has been inserted yet.
+         */
+        private CharSequence getRecentNode() {
+            long n = nbInserted.get();
+            if (n == 0) {
+                return getRandomNode();
+            }
+            // skewed towards the most recent nodes
+            long age = (long) (Math.pow(random.nextDouble(), 4) * Math.min(n,
+                    NB_RECENT));
+            String node = recent.get((int) ((n - 1 - age) % NB_RECENT));
+            // the slot may not have been written yet
+            return node == null ? getRandomNode() : node;
+        }
+
+    }
+
+}
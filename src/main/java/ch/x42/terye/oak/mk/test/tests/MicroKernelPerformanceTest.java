@@ -1,9 +1,20 @@
 package ch.x42.terye.oak.mk.test.tests;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.jackrabbit.mk.api.MicroKernel;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.runner.RunWith;
@@ -11,47 +22,546 @@ import org.junit.runners.Parameterized.Parameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.x42.terye.oak.mk.test.BatchSizeController;
+import ch.x42.terye.oak.mk.test.BatchSizeController.Sample;
+import ch.x42.terye.oak.mk.test.Calibration;
+import ch.x42.terye.oak.mk.test.ConcurrentHistogram;
+import ch.x42.terye.oak.mk.test.Histogram;
+import ch.x42.terye.oak.mk.test.MeasurementWindow;
+import ch.x42.terye.oak.mk.test.Pacer;
 import ch.x42.terye.oak.mk.test.ParameterizedPerformanceTestRunner;
+import ch.x42.terye.oak.mk.test.Timer;
+import ch.x42.terye.oak.mk.test.TimerAware;
+import ch.x42.terye.oak.mk.test.Workload;
 import ch.x42.terye.oak.mk.test.fixtures.HBaseMKTestFixture;
+import ch.x42.terye.oak.mk.test.fixtures.InMemoryMKTestFixture;
+import ch.x42.terye.oak.mk.test.fixtures.InstrumentedMKTestFixture;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelMetrics;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelMetrics.Method;
 import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+import ch.x42.terye.oak.mk.test.fixtures.MongoMKTestFixture;
+import ch.x42.terye.oak.mk.test.fixtures.NoopMKTestFixture;
 
 /**
  * This is the base class for all MicroKernel performance tests. When run, the
  * test is executed once for each parameter array returned by the
- * getParameters() method.
+ * getParameters() method and each workload defined for the test (see
+ * Workload).
  */
 @RunWith(ParameterizedPerformanceTestRunner.class)
-public abstract class MicroKernelPerformanceTest {
+public abstract class MicroKernelPerformanceTest implements TimerAware {
+
+    /**
+     * System property that, if set to true, makes all fixtures return
+     * instrumented microkernels.
+     */
+    public static final String PROPERTY_INSTRUMENT = "mktest.instrument";
+
+    /**
+     * System property defining the comma-separated list of fixtures the tests
+     * are run with ("hbase", "mongo", "memory" and/or "noop", default is
+     * "hbase").
+     */
+    public static final String PROPERTY_FIXTURES = "mktest.fixtures";
+
+    /**
+     * Workload parameter defining the total number of operations per second
+     * the workers should issue (open-loop mode). If not set, the workers
+     * issue their operations as fast as possible (closed-loop mode).
+     */
+    public static final String KEY_TARGET_RATE = "targetRate";
+
+    /**
+     * Workload parameter defining the length (in seconds) of the measurement
+     * phase of duration-based runs. If set, the workers run for a fixed
+     * amount of time rather than doing a fixed amount of work.
+     */
+    public static final String KEY_DURATION = "duration";
+
+    /**
+     * Workload parameters defining the length (in seconds) of the ramp-up and
+     * ramp-down phases of duration-based runs.
+     */
+    public static final String KEY_RAMP_UP = "rampUp";
+    public static final String KEY_RAMP_DOWN = "rampDown";
+
+    /**
+     * Workload parameter defining the number of loaders used to create the
+     * initial data of a test (see BulkLoader).
+     */
+    public static final String KEY_LOADERS = "loaders";
+
+    /**
+     * Workload parameter defining the number of nodes per commit used to
+     * create the initial data of a test. With adaptive batching, this is the
+     * size the loaders start with.
+     */
+    public static final String KEY_LOAD_BATCH_SIZE = "loadBatchSize";
+
+    /**
+     * Workload parameter that, if set to true, makes the commit rate (number
+     * of nodes per commit) adapt at runtime (see BatchSizeController).
+     */
+    public static final String KEY_ADAPTIVE_BATCHING = "adaptiveBatching";
+
+    /**
+     * Workload parameter defining the maximum mean commit latency (in
+     * milliseconds) the adaptive commit rate must respect.
+     */
+    public static final String KEY_MAX_COMMIT_LATENCY = "maxCommitLatency";
+
+    /**
+     * Workload parameter that, if set to true, makes every worker (client)
+     * run in its own virtual thread rather than a platform thread. This
+     * allows for tests with thousands of concurrent clients.
+     */
+    public static final String KEY_VIRTUAL_THREADS = "virtualThreads";
+
+    /**
+     * Workload parameter defining the number of microkernels shared by the
+     * workers (clients) of a test. If not set, every worker gets its own
+     * microkernel.
+     */
+    public static final String KEY_MICROKERNELS = "microKernels";
+
+    // maximum number of workers whose throughput is logged individually
+    private static final int MAX_LOGGED_WORKERS = 64;
 
     @Parameters
-    public static Collection<Object[]> getParameters() {
+    public static Collection<Object[]> getParameters() throws Exception {
         List<Object[]> parameters = new LinkedList<Object[]>();
-        // execute tests with the HBase microkernel
-        parameters.add(new Object[] {
-            new HBaseMKTestFixture()
-        });
+        for (String name : System.getProperty(PROPERTY_FIXTURES, "hbase")
+                .split(",")) {
+            parameters.add(new Object[] {
+                instrument(createFixture(name.trim()))
+            });
+        }
         return parameters;
     }
 
+    /**
+     * Creates the fixture with the specified name ("hbase", "mongo", "memory"
+     * or "noop").
+     */
+    public static MicroKernelTestFixture createFixture(String name)
+            throws Exception {
+        if (name.equals("hbase")) {
+            return new HBaseMKTestFixture();
+        } else if (name.equals("mongo")) {
+            return new MongoMKTestFixture();
+        } else if (name.equals("memory")) {
+            return new InMemoryMKTestFixture();
+        } else if (name.equals("noop")) {
+            return new NoopMKTestFixture();
+        }
+        throw new IllegalArgumentException("Unknown fixture: " + name);
+    }
+
+    /**
+     * Wraps the specified fixture into an instrumented fixture if enabled by
+     * the corresponding system property (calibration fixtures are never
+     * instrumented).
+     */
+    private static MicroKernelTestFixture instrument(
+            MicroKernelTestFixture fixture) {
+        if (Boolean.getBoolean(PROPERTY_INSTRUMENT)
+                && !(fixture instanceof Calibration)) {
+            return new InstrumentedMKTestFixture(fixture);
+        }
+        return fixture;
+    }
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     protected MicroKernelTestFixture fixture;
+    protected Workload workload;
+    protected Timer timer;
+    // microkernels shared by the workers, if limited by the workload
+    private List<MicroKernel> microKernels;
+    // controllers adapting the commit rate of the workers
+    private final List<BatchSizeController> controllers =
+            new ArrayList<BatchSizeController>();
 
-    protected MicroKernelPerformanceTest(MicroKernelTestFixture fixture) {
+    protected MicroKernelPerformanceTest(MicroKernelTestFixture fixture,
+            Workload workload) {
         this.fixture = fixture;
+        this.workload = workload;
+    }
+
+    @Override
+    public void setTimer(Timer timer) {
+        this.timer = timer;
     }
 
     @Before
     public final void setUp() throws Exception {
         System.gc();
+        logger.debug("Workload: " + workload.getValues());
         logger.debug("Calling test setup fixture method");
         fixture.setUpBeforeTest();
     }
 
     @After
     public final void tearDown() throws Exception {
+        if (timer != null && fixture instanceof InstrumentedMKTestFixture) {
+            // report the latencies of the microkernel calls of the workers
+            MicroKernelMetrics metrics = ((InstrumentedMKTestFixture) fixture)
+                    .getMetrics();
+            for (Method method : metrics.getMethods().values()) {
+                if (method.getCalls() > 0) {
+                    timer.recordLatencies("mk." + method.getName(),
+                            method.getLatencies());
+                }
+            }
+        }
+        // the fixture disposes of the shared microkernels
+        microKernels = null;
         logger.debug("Calling test teardown fixture method");
         fixture.tearDownAfterTest();
     }
 
+    /**
+     * Returns the total number of operations per second the workers should
+     * issue, or 0 if they should run in closed-loop mode.
+     */
+    protected double getTargetRate() {
+        return workload.getDouble(KEY_TARGET_RATE, 0.0);
+    }
+
+    /**
+     * Returns true if the exception reports a conflict. The microkernel API
+     * has no exception type of its own for conflicts, the kernels mention the
+     * conflict in the message of the exception or of its cause.
+     */
+    protected static boolean isConflict(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.toLowerCase().contains("conflict")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of worker threads defined by the workload, by
+     * default the number of available processors.
+     */
+    protected int getNbThreads() {
+        return workload.getInt(Workload.KEY_THREADS, Runtime.getRuntime()
+                .availableProcessors());
+    }
+
+    /**
+     * Returns the number of subtrees of the specified shape the initial tree
+     * of the test consists of: as many as needed to reach the data size
+     * defined by the workload (see Workload.KEY_DATA_SIZE), if any,
+     * otherwise the "subtrees" parameter (by default the number of threads).
+     */
+    protected int getNbSubtrees(int height, int branchingFactor) {
+        if (!workload.contains(Workload.KEY_DATA_SIZE)) {
+            return workload.getInt("subtrees", getNbThreads());
+        }
+        long size = TreeDataset.getSubtreeSize(height, branchingFactor);
+        long dataSize = workload.getLong(Workload.KEY_DATA_SIZE, size);
+        return (int) Math.max(1, (dataSize + size / 2) / size);
+    }
+
+    /**
+     * Returns the microkernel to be used by the worker (client) with the
+     * specified index. If the workload limits the number of microkernels,
+     * the workers share them in a round-robin fashion, otherwise every
+     * worker gets a new microkernel.
+     */
+    protected MicroKernel getClientMicroKernel(int index) throws Exception {
+        int n = workload.getInt(KEY_MICROKERNELS, 0);
+        if (n <= 0) {
+            return fixture.createMicroKernel();
+        }
+        if (microKernels == null) {
+            microKernels = new ArrayList<MicroKernel>();
+            for (int i = 0; i < n; i++) {
+                microKernels.add(fixture.createMicroKernel());
+            }
+        }
+        return microKernels.get(index % n);
+    }
+
+    /**
+     * Returns the number of loaders to be used to create the initial data of
+     * the test, by default the number of available processors.
+     */
+    protected int getNbLoaders() {
+        return workload.getInt(KEY_LOADERS, Runtime.getRuntime()
+                .availableProcessors());
+    }
+
+    /**
+     * Returns the tree dataset of the specified shape, loaded by
+     * getNbLoaders() loaders with the batch size defined by the workload
+     * (adapted at runtime if adaptive batching is enabled).
+     */
+    protected TreeDataset createTreeDataset(int nbSubtrees, int height,
+            int branchingFactor) {
+        int batchSize = workload.getInt(KEY_LOAD_BATCH_SIZE,
+                BulkLoader.DEFAULT_BATCH_SIZE);
+        TreeDataset dataset = new TreeDataset(nbSubtrees, height,
+                branchingFactor, getNbLoaders(), batchSize);
+        if (workload.getBoolean(KEY_ADAPTIVE_BATCHING, false)) {
+            dataset.setBatchSizeController(newBatchSizeController(batchSize));
+        }
+        return dataset;
+    }
+
+    /**
+     * Returns a controller adapting the commit rate of the workers if enabled
+     * by the workload, otherwise null. The controller is frozen once the
+     * warm-up phase is over, so that all measured runs use the same commit
+     * rate.
+     *
+     * @param initialRate the commit rate to start with
+     */
+    protected BatchSizeController createBatchSizeController(int initialRate) {
+        if (!workload.getBoolean(KEY_ADAPTIVE_BATCHING, false)) {
+            return null;
+        }
+        BatchSizeController controller = newBatchSizeController(initialRate);
+        controllers.add(controller);
+        return controller;
+    }
+
+    private BatchSizeController newBatchSizeController(int initialSize) {
+        long maxLatency = TimeUnit.MILLISECONDS.toNanos(workload.getLong(
+                KEY_MAX_COMMIT_LATENCY, 0));
+        return new BatchSizeController(initialSize, 1, 100000, maxLatency);
+    }
+
+    /**
+     * Logs the current (or converged) batch size of the specified controller
+     * and the throughput and latency of all batch sizes it explored.
+     */
+    protected void logBatchSizes(BatchSizeController controller) {
+        if (controller == null) {
+            return;
+        }
+        logger.debug("Commit rate: " + controller.getBatchSize()
+                + (controller.isConverged() ? " (converged)" : " (exploring)"));
+        String format = "%12s %10s %14s %14s";
+        logger.debug(String.format(format, "commit rate", "commits",
+                "nodes/s", "latency (ms)"));
+        for (Entry<Integer, Sample> entry : controller.getCurve().entrySet()) {
+            Sample sample = entry.getValue();
+            logger.debug(String.format(format, entry.getKey(),
+                    sample.getBatches(),
+                    String.format("%.1f", sample.getThroughput()),
+                    String.format("%.3f",
+                            sample.getMeanLatency() / 1000000.0)));
+        }
+    }
+
+    /**
+     * Returns the measurement window to be used for duration-based runs, or
+     * null if the workers should do a fixed amount of work.
+     */
+    protected MeasurementWindow getMeasurementWindow() {
+        if (!workload.contains(KEY_DURATION)) {
+            return null;
+        }
+        return new MeasurementWindow(workload.getLong(KEY_RAMP_UP, 10),
+                workload.getLong(KEY_DURATION, 0),
+                workload.getLong(KEY_RAMP_DOWN, 5), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Shares the target rate among the workers that have no rate of their
+     * own. The operations of the workers of the same class with a rate of
+     * their own are spread evenly as well.
+     */
+    private static void setPacers(List<? extends Worker> workers,
+            double rate) {
+        // number of workers following the target rate (key null) and with
+        // a rate of their own per class
+        Map<Class<?>, Integer> counts = new HashMap<Class<?>, Integer>();
+        for (Worker worker : workers) {
+            Class<?> key = worker.getFixedRate() < 0.0 ? null : worker
+                    .getClass();
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        Map<Class<?>, Integer> indexes = new HashMap<Class<?>, Integer>();
+        for (Worker worker : workers) {
+            Class<?> key = worker.getFixedRate() < 0.0 ? null : worker
+                    .getClass();
+            Integer index = indexes.get(key);
+            index = index == null ? 0 : index;
+            indexes.put(key, index + 1);
+            int count = counts.get(key);
+            double total = key == null ? rate : worker.getFixedRate() * count;
+            worker.setPacer(Pacer.share(total, index, count));
+        }
+    }
+
+    /**
+     * Executes the specified workers concurrently (one platform or virtual
+     * thread per worker, see KEY_VIRTUAL_THREADS) and waits for them to
+     * finish. The workers wait on a common barrier, so that neither the
+     * creation of the threads nor their start-up is measured. In a
+     * duration-based run, the workers run for the length of the measurement
+     * window and only the operations started in its measurement phase are
+     * taken into account. If a target rate is set, the rate is evenly shared
+     * among the workers that have no rate of their own (see
+     * Worker.getFixedRate()). The latencies and the number of operations
+     * recorded by the workers are passed on to the timer. With an
+     * instrumented fixture, the metrics of the microkernel calls are reset
+     * when the workers start.
+     *
+     * @param timeout the maximum time to wait for the workers to finish (in
+     *            addition to the length of the measurement window, if any)
+     * @param unit the time unit of the timeout argument
+     */
+    protected void runWorkers(List<? extends Worker> workers, long timeout,
+            TimeUnit unit) throws Exception {
+        int n = workers.size();
+        boolean virtual = workload.getBoolean(KEY_VIRTUAL_THREADS, false);
+        // with virtual threads, the workers share their histograms
+        Map<String, ConcurrentHistogram> shared = null;
+        if (virtual) {
+            shared = new HashMap<String, ConcurrentHistogram>();
+        }
+        double rate = getTargetRate();
+        if (timer != null && timer.isWarmedUp()) {
+            for (BatchSizeController controller : controllers) {
+                if (controller.freeze()) {
+                    logger.debug("Commit rate frozen at "
+                            + controller.getBatchSize());
+                }
+            }
+        }
+        final MeasurementWindow window = getMeasurementWindow();
+        final MicroKernelMetrics metrics;
+        if (fixture instanceof InstrumentedMKTestFixture) {
+            metrics = ((InstrumentedMKTestFixture) fixture).getMetrics();
+        } else {
+            metrics = null;
+        }
+        // start measuring once all workers are ready
+        final long[] start = new long[1];
+        CyclicBarrier barrier = new CyclicBarrier(n, new Runnable() {
+
+            @Override
+            public void run() {
+                if (window != null) {
+                    window.start();
+                }
+                if (metrics != null) {
+                    // leave out the calls made by the test's setup
+                    metrics.reset();
+                }
+                start[0] = System.nanoTime();
+            }
+
+        });
+        setPacers(workers, rate);
+        for (Worker worker : workers) {
+            worker.resetLatencies();
+            worker.setBarrier(barrier);
+            worker.setWindow(window);
+            if (shared != null) {
+                for (String operation : worker.getOperationNames()) {
+                    if (!shared.containsKey(operation)) {
+                        shared.put(operation, new ConcurrentHistogram());
+                    }
+                }
+                worker.setSharedLatencies(shared);
+            }
+        }
+        if (rate > 0.0) {
+            logger.debug("Target rate: " + rate + " ops/s");
+        }
+        long wait = unit.toNanos(timeout);
+        if (window != null) {
+            logger.debug("Measurement window: "
+                    + TimeUnit.NANOSECONDS.toSeconds(window.getDuration())
+                    + " s (total "
+                    + TimeUnit.NANOSECONDS.toSeconds(window.getLength())
+                    + " s)");
+            wait += window.getLength();
+        }
+        logger.debug("Starting concurrent worker execution ("
+                + (virtual ? "virtual" : "platform") + " threads)");
+        ExecutorService executor = virtual ? Executors
+                .newVirtualThreadPerTaskExecutor() : Executors
+                .newFixedThreadPool(n);
+        List<Future<String>> futures = new LinkedList<Future<String>>();
+        for (Worker worker : workers) {
+            futures.add(executor.submit(worker));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(wait, TimeUnit.NANOSECONDS)) {
+            executor.shutdownNow();
+            throw new TimeoutException("Workers did not finish within "
+                    + TimeUnit.NANOSECONDS.toSeconds(wait) + " s");
+        }
+        long end = System.nanoTime();
+        // get return value of workers (this forces exceptions that might have
+        // happened during execution to be re-thrown)
+        for (Future<String> future : futures) {
+            future.get();
+        }
+        logger.debug("All workers are done");
+        if (window != null && !window.isOver(end)) {
+            logger.warn("The workers ran out of work before the end of the "
+                    + "measurement window, the throughput is underestimated");
+        }
+        long elapsed = window == null ? end - start[0] : window.getDuration();
+        if (window != null) {
+            logWorkerThroughput(workers, elapsed);
+        }
+        // report latencies and throughput
+        if (timer == null) {
+            return;
+        }
+        timer.setTargetThroughput(rate);
+        if (shared != null) {
+            for (Entry<String, ConcurrentHistogram> entry : shared.entrySet()) {
+                timer.recordLatencies(entry.getKey(), entry.getValue()
+                        .snapshot());
+            }
+        }
+        for (Worker worker : workers) {
+            timer.recordOperations(worker.getOperations(), 0);
+            for (Entry<String, Histogram> entry : worker.getLatencies()
+                    .entrySet()) {
+                timer.recordLatencies(entry.getKey(), entry.getValue());
+            }
+        }
+        timer.recordOperations(0, elapsed);
+    }
+
+    /**
+     * Logs the steady-state throughput of every worker as well as the spread
+     * between the fastest and the slowest worker.
+     */
+    private void logWorkerThroughput(List<? extends Worker> workers,
+            long elapsed) {
+        double seconds = elapsed / 1000000000.0;
+        double min = Double.MAX_VALUE;
+        double max = 0.0;
+        double sum = 0.0;
+        int i = 0;
+        for (Worker worker : workers) {
+            double throughput = worker.getOperations() / seconds;
+            if (workers.size() <= MAX_LOGGED_WORKERS) {
+                logger.debug(String.format("Worker %d: %.1f ops/s", i++,
+                        throughput));
+            }
+            min = Math.min(min, throughput);
+            max = Math.max(max, throughput);
+            sum += throughput;
+        }
+        logger.debug(String.format("Steady-state throughput: %.1f ops/s "
+                + "(per worker: min %.1f, max %.1f, max/min %.2f)", sum, min,
+                max, min > 0.0 ? max / min : Double.POSITIVE_INFINITY));
+    }
+
 }
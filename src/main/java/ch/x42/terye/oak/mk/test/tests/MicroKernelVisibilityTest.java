@@ -0,0 +1,257 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.apache.jackrabbit.mk.api.MicroKernelException;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures how long it takes for a commit on one microkernel
+ * instance to become visible on another. Each of nbWriters writers commits
+ * nbMarkers marker nodes at writeRate markers per second (optionally along
+ * with payload other nodes in order to increase the write load) and
+ * publishes the time its commit returned. Each of nbReaders readers, using
+ * microkernel instances of their own, waits for the latest marker of every
+ * writer to become visible and records the delay between the return of the
+ * commit and the moment the marker was found. Markers committed while a
+ * reader is still waiting for a previous one are skipped by that reader.
+ * <p>
+ * Readers either poll their microkernel every pollInterval milliseconds
+ * (getHeadRevision() and, if the head has changed, nodeExists()) or block in
+ * waitForCommit(), depending on visibilityCheck ("poll" or "wait"). When
+ * polling, the delays are only accurate to pollInterval.
+ */
+public class MicroKernelVisibilityTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_VISIBILITY = "visibility";
+    private static final String ROOT = "/visibility";
+    // maximum time to wait for a marker in milliseconds
+    private static final long TIMEOUT = 60000;
+    // maximum time a call to waitForCommit() blocks in milliseconds
+    private static final long WAIT_TIMEOUT = 100;
+    // interval at which readers check for new markers in nanoseconds
+    private static final long MARKER_INTERVAL = 10000;
+
+    private final int nbWriters;
+    private final int nbReaders;
+    // number of markers to be committed by each writer
+    private final int nbMarkers;
+    // markers per second and writer, 0 for as fast as possible
+    private final double writeRate;
+    // number of additional nodes per marker commit
+    private final int payload;
+    private final boolean wait;
+    // in nanoseconds
+    private final long pollInterval;
+
+    public List<Worker> workers;
+    // latest marker of each writer
+    private AtomicReferenceArray<Marker> latest;
+    private AtomicInteger nbActiveWriters;
+
+    public MicroKernelVisibilityTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbWriters = workload.getInt("nbWriters", 1);
+        nbReaders = workload.getInt("nbReaders", getNbThreads());
+        nbMarkers = workload.getInt("nbMarkers", 1000);
+        writeRate = workload.getDouble("writeRate", 100.0);
+        payload = workload.getInt("payload", 0);
+        String check = workload.get("visibilityCheck", "poll");
+        if (!check.equals("poll") && !check.equals("wait")) {
+            throw new IllegalArgumentException("Unknown visibility check: "
+                    + check);
+        }
+        wait = check.equals("wait");
+        pollInterval = (long) (workload.getDouble("pollInterval", 1.0)
+                * 1000000.0);
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of writers: " + nbWriters);
+        logger.debug("Number of readers: " + nbReaders);
+        logger.debug("Markers per second and writer: "
+                + (writeRate > 0.0 ? writeRate : "unlimited"));
+        logger.debug("Payload nodes per marker: " + payload);
+        logger.debug("Visibility check: " + (wait ? "wait" : "poll"));
+
+        // create the parent nodes of the markers
+        MicroKernel mk = getClientMicroKernel(0);
+        StringBuilder jsop = new StringBuilder();
+        jsop.append("+\"" + ROOT + "\":{} ");
+        for (int i = 0; i < nbWriters; i++) {
+            jsop.append("+\"" + ROOT + "/writer_" + i + "\":{} ");
+        }
+        mk.commit("", jsop.toString(), null, "");
+
+        // create workers, each with a microkernel of its own
+        logger.debug("Creating workers");
+        latest = new AtomicReferenceArray<Marker>(nbWriters);
+        nbActiveWriters = new AtomicInteger(nbWriters);
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbWriters; i++) {
+            workers.add(new Writer(getClientMicroKernel(i), i));
+        }
+        for (int i = 0; i < nbReaders; i++) {
+            workers.add(new Reader(getClientMicroKernel(nbWriters + i)));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 1, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * A committed marker node.
+     */
+    private static class Marker {
+
+        private final int sequence;
+        private final String path;
+        // time the commit returned (as returned by System.nanoTime())
+        private final long time;
+
+        public Marker(int sequence, String path, long time) {
+            this.sequence = sequence;
+            this.path = path;
+            this.time = time;
+        }
+
+    }
+
+    private class Writer extends Worker {
+
+        private MicroKernel mk;
+        private int index;
+        private String parent;
+        private JsopBatch batch;
+
+        public Writer(MicroKernel mk, int index) {
+            // the commits of the writers are spread evenly
+            super(writeRate, TreeCommitter.OPERATION_COMMIT);
+            this.mk = mk;
+            this.index = index;
+            parent = ROOT + "/writer_" + index;
+            batch = new JsopBatch();
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            try {
+                for (int i = 0; isRunning(i < nbMarkers); i++) {
+                    String path = parent + "/marker_" + i;
+                    for (int j = 0; j < payload; j++) {
+                        batch.addNode(parent, "payload_" + i + "_", j);
+                    }
+                    batch.addNode(path);
+                    long start = beginOperation();
+                    revisionId = mk.commit("", batch.flush(), null, "");
+                    endOperation(TreeCommitter.OPERATION_COMMIT, start);
+                    latest.set(index, new Marker(i, path, System.nanoTime()));
+                }
+            } finally {
+                nbActiveWriters.decrementAndGet();
+            }
+            return revisionId;
+        }
+
+    }
+
+    private class Reader extends Worker {
+
+        private MicroKernel mk;
+        // sequence number of the last marker seen of each writer
+        private int[] seen;
+        private String head;
+
+        public Reader(MicroKernel mk) {
+            super(OPERATION_VISIBILITY);
+            this.mk = mk;
+            seen = new int[nbWriters];
+        }
+
+        @Override
+        protected String work() throws Exception {
+            for (int i = 0; i < nbWriters; i++) {
+                seen[i] = -1;
+            }
+            head = mk.getHeadRevision();
+            while (!isStopped()) {
+                // the writers are done once they are inactive and their
+                // last markers have been seen
+                boolean done = nbActiveWriters.get() == 0;
+                boolean found = false;
+                for (int i = 0; i < nbWriters; i++) {
+                    Marker marker = latest.get(i);
+                    if (marker == null || marker.sequence <= seen[i]) {
+                        continue;
+                    }
+                    done = false;
+                    found = true;
+                    if (!awaitVisible(marker)) {
+                        // stopped
+                        return null;
+                    }
+                    endOperation(OPERATION_VISIBILITY, marker.time);
+                    seen[i] = marker.sequence;
+                }
+                if (done) {
+                    break;
+                }
+                if (!found) {
+                    // wait for the next marker
+                    LockSupport.parkNanos(MARKER_INTERVAL);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Waits until the specified marker is visible on the microkernel of
+         * this reader. Returns false if the end of the measurement window
+         * has been reached before.
+         */
+        private boolean awaitVisible(Marker marker) throws Exception {
+            long deadline = marker.time
+                    + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+            boolean changed = true;
+            while (true) {
+                if (changed && mk.nodeExists(marker.path, null)) {
+                    return true;
+                }
+                if (isStopped()) {
+                    return false;
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new MicroKernelException("Marker " + marker.path
+                            + " not visible after " + TIMEOUT + " ms");
+                }
+                String revisionId;
+                if (wait) {
+                    revisionId = mk.waitForCommit(head, WAIT_TIMEOUT);
+                } else {
+                    LockSupport.parkNanos(pollInterval);
+                    revisionId = mk.getHeadRevision();
+                }
+                changed = !revisionId.equals(head);
+                head = revisionId;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.junit.Before;
+
+import ch.x42.terye.oak.mk.test.PerformanceTest;
+import ch.x42.terye.oak.mk.test.Workload;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * This test measures the performance of operations on a node with a very
+ * large number of child nodes (see WideNodeDataset). Every thread performs
+ * nbOperations operations, cycling through:
+ * <ul>
+ * <li>reading a page of pageSize child nodes with getNodes() at offset 0,
+ * at every power of ten below the number of child nodes and at the last
+ * page (one operation per offset)</li>
+ * <li>getChildNodeCount()</li>
+ * <li>adding a child node</li>
+ * </ul>
+ * Running the test with several values of nbChildren shows how the latencies
+ * scale with the size of the child list, the offsets show how they scale
+ * within the list.
+ */
+public class MicroKernelWideNodeTest extends MicroKernelPerformanceTest {
+
+    private static final String OPERATION_GET_CHILD_NODE_COUNT =
+            "getChildNodeCount";
+    private static final String OPERATION_ADD_NODE = "addNode";
+
+    private final int nbThreads;
+    private final int nbChildren;
+    private final int pageSize;
+    // number of operations to be performed by each thread
+    private final int nbOperations;
+    // offsets of the pages read
+    private final long[] offsets;
+    private final String[] operations;
+
+    public List<Worker> workers;
+    private AtomicInteger counter;
+
+    public MicroKernelWideNodeTest(MicroKernelTestFixture fixture,
+            Workload workload) {
+        super(fixture, workload);
+        nbThreads = getNbThreads();
+        nbChildren = workload.getInt("nbChildren", 100000);
+        pageSize = workload.getInt("pageSize", 100);
+        nbOperations = workload.getInt("nbOperations", 100);
+        List<Long> list = new ArrayList<Long>();
+        list.add(0L);
+        long last = Math.max(0, nbChildren - pageSize);
+        for (long offset = 10; offset < last; offset *= 10) {
+            list.add(offset);
+        }
+        if (last > 0) {
+            list.add(last);
+        }
+        offsets = new long[list.size()];
+        operations = new String[list.size() + 2];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = list.get(i);
+            operations[i] = "getNodes[offset=" + offsets[i] + "]";
+        }
+        operations[offsets.length] = OPERATION_GET_CHILD_NODE_COUNT;
+        operations[offsets.length + 1] = OPERATION_ADD_NODE;
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        // log info
+        logger.debug("Number of threads: " + nbThreads);
+        logger.debug("Number of child nodes: " + nbChildren);
+        logger.debug("Seeding wide node");
+
+        // seed wide node (only created once for all runs)
+        fixture.seed(new WideNodeDataset(nbChildren));
+
+        // create workers
+        logger.debug("Creating workers");
+        counter = new AtomicInteger();
+        workers = new LinkedList<Worker>();
+        for (int i = 0; i < nbThreads; i++) {
+            workers.add(new Client(getClientMicroKernel(i), i));
+        }
+    }
+
+    @PerformanceTest(nbWarmupRuns = 2, nbRuns = 3)
+    public void test() throws Exception {
+        runWorkers(workers, 60, TimeUnit.MINUTES);
+    }
+
+    private class Client extends Worker {
+
+        private MicroKernel mk;
+        // index of the first operation, so that the threads don't perform
+        // the same operations at the same time
+        private int first;
+        private JsopBatch batch;
+
+        public Client(MicroKernel mk, int first) {
+            super(operations);
+            this.mk = mk;
+            this.first = first;
+            batch = new JsopBatch();
+        }
+
+        @Override
+        protected String work() throws Exception {
+            String revisionId = null;
+            for (int i = 0; isRunning(i < nbOperations); i++) {
+                int operation = (first + i) % operations.length;
+                if (operation < offsets.length) {
+                    long start = beginOperation();
+                    mk.getNodes(WideNodeDataset.PATH, null, 0,
+                            offsets[operation], pageSize, null);
+                    endOperation(operations[operation], start);
+                } else if (operation == offsets.length) {
+                    long start = beginOperation();
+                    mk.getChildNodeCount(WideNodeDataset.PATH, null);
+                    endOperation(OPERATION_GET_CHILD_NODE_COUNT, start);
+                } else {
+                    batch.addNode(WideNodeDataset.PATH, "added_",
+                            counter.getAndIncrement());
+                    long start = beginOperation();
+                    revisionId = mk.commit("", batch.flush(), null, "");
+                    endOperation(OPERATION_ADD_NODE, start);
+                }
+            }
+            return revisionId;
+        }
+
+    }
+
+}
@@ -1,25 +1,44 @@
 package ch.x42.terye.oak.mk.test.tests;
 
-import java.util.concurrent.Callable;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.jackrabbit.mk.api.MicroKernel;
-import org.apache.jackrabbit.oak.commons.PathUtils;
+
+import ch.x42.terye.oak.mk.test.BatchSizeController;
 
 /**
  * This callable commits a tree defined by the constructor arguments with a
  * specified commit rate. The name of the nodes will be the concatenation of a
  * constant prefix (NODE_PREFIX) and a number corresponding to the zero-based
  * numbering of the child nodes of a given node.
+ * <p>
+ * By default, the committer waits for each commit to return before building
+ * the next batch. With a pipeline depth greater than one, up to that many
+ * commits are in flight at the same time. As the tree is committed level by
+ * level, a batch is only issued once all batches that may contain parents of
+ * its nodes (i.e. all batches issued before the level was started and the
+ * batch pending at that time) are complete.
  */
-public class TreeCommitter implements Callable<String> {
+public class TreeCommitter extends Worker {
 
     public static final String NODE_PREFIX = "node_";
+    public static final String OPERATION_COMMIT = "commit";
 
     private MicroKernel mk;
     private String root;
     private int height;
     private int branchingFactor;
     private int rate;
+    // maximum number of outstanding commits
+    private int pipelineDepth;
+    // adapts the commit rate, if set
+    private BatchSizeController controller;
+    // executes the commits of the pipelined mode while the committer works
+    private ExecutorService executor;
 
     /**
      * Constructor.
@@ -33,67 +52,231 @@ public class TreeCommitter implements Callable<String> {
      */
     public TreeCommitter(MicroKernel mk, String root, int height,
             int branchingFactor, int rate) {
+        super(OPERATION_COMMIT);
         this.mk = mk;
         this.root = root;
         this.height = height;
         this.branchingFactor = branchingFactor;
         this.rate = rate;
+        pipelineDepth = 1;
+    }
+
+    /**
+     * Sets the maximum number of commits in flight at the same time (1 by
+     * default).
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    /**
+     * Sets the controller adapting the commit rate at runtime (the commit
+     * rate passed to the constructor is ignored).
+     */
+    public void setBatchSizeController(BatchSizeController controller) {
+        this.controller = controller;
     }
 
     @Override
-    public String call() throws Exception {
+    protected String work() throws Exception {
+        if (pipelineDepth > 1) {
+            return workPipelined();
+        }
         String revisionId = null;
-        String batch = "";
-        int batchCount = 0;
+        JsopBatch batch = new JsopBatch();
+        // paths are relative to the root node of the repository
+        TreePath path = new TreePath(root.substring(1), branchingFactor,
+                height);
         // loop through all levels
         for (int i = 1; i <= height; i++) {
-            // number of nodes on this level
-            int nbNodes = (int) Math.pow(branchingFactor, i);
             // loop through all nodes on this level
-            for (int j = 0; j < nbNodes; j++) {
+            for (boolean more = path.first(i); more && !isStopped(); more = path
+                    .next()) {
                 // add new statement to batch for later commit
-                String abs = generatePath(i, j);
-                batch += "+\"" + PathUtils.relativize("/", abs) + "\":{} ";
-                batchCount++;
+                batch.addNode(path);
                 // commit batch
-                if (batchCount == rate) {
-                    revisionId = mk.commit("/", batch, null, "");
-                    batch = "";
-                    batchCount = 0;
+                if (batch.size() >= getRate()) {
+                    revisionId = commit(batch);
                 }
             }
         }
         // commit remaining statements, if any
-        if (batchCount > 0) {
-            // commit batch
-            revisionId = mk.commit("/", batch, null, "");
+        if (batch.size() > 0) {
+            revisionId = commit(batch);
         }
         // return last revision id
         return revisionId;
     }
 
     /**
-     * This method generates the path for a node in the tree rooted at 'root'.
-     * 
-     * @param level the level of the node (0 being the same level as the root of
-     *            the tree)
-     * @param index the zero-based index of the node on the specified level
-     * @return the absolute path of the specified node
+     * Returns the number of nodes per commit.
      */
-    private String generatePath(int level, int index) {
-        String path = root;
-        if (level == 0) {
-            return root;
+    private int getRate() {
+        return controller == null ? rate : controller.getBatchSize();
+    }
+
+    private String commit(JsopBatch batch) {
+        int nbNodes = batch.size();
+        long start = beginOperation();
+        String revisionId = mk.commit("/", batch.flush(), null, "");
+        endOperation(OPERATION_COMMIT, start);
+        if (controller != null) {
+            controller.record(nbNodes, System.nanoTime() - start);
         }
-        // loop through all levels, starting at first sublevel of the root
-        for (int i = 1; i <= level; i++) {
-            // number of nodes at level 'level' that share the same ancestor
-            // node on the current level
-            int n = ((int) Math.pow(branchingFactor, level - i));
-            path = PathUtils.concat(path, NODE_PREFIX
-                    + ((index / n) % branchingFactor));
+        return revisionId;
+    }
+
+    private String workPipelined() throws Exception {
+        executor = Executors.newFixedThreadPool(pipelineDepth,
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "tree-committer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+
+                });
+        try {
+            return commitPipelined();
+        } finally {
+            // lets the commits in flight (if any) finish
+            executor.shutdown();
+            executor = null;
         }
-        return path;
     }
 
-}
\ No newline at end of file
+    private String commitPipelined() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        JsopBatch batch = new JsopBatch();
+        TreePath path = new TreePath(root.substring(1), branchingFactor,
+                height);
+        for (int i = 1; i <= height; i++) {
+            // the parents of the nodes on this level are contained in the
+            // batches issued so far and the batch still pending, which is
+            // issued next and only depends on the batches issued before it
+            int issued = pipeline.getIssued();
+            int required = issued + (batch.size() > 0 ? 1 : 0);
+            for (boolean more = path.first(i); more && !isStopped(); more = path
+                    .next()) {
+                batch.addNode(path);
+                if (batch.size() >= getRate()) {
+                    pipeline.commit(batch, Math.min(pipeline.getIssued(),
+                            required));
+                }
+            }
+        }
+        if (batch.size() > 0) {
+            pipeline.commit(batch, pipeline.getIssued());
+        }
+        // return the revision id of the last batch
+        return pipeline.await();
+    }
+
+    /**
+     * Issues commits asynchronously and tracks their completion in issue
+     * order.
+     */
+    private class Pipeline {
+
+        // permits for outstanding commits
+        private final Semaphore slots;
+        // completed batches by sequence number
+        private final BitSet completed;
+        // number of batches issued
+        private int issued;
+        // number of batches completed without gap in issue order
+        private int prefix;
+        // revision id of the completed batch with the highest sequence number
+        private String revisionId;
+        private int last;
+        private Exception failure;
+
+        public Pipeline() {
+            slots = new Semaphore(pipelineDepth);
+            completed = new BitSet();
+            last = -1;
+        }
+
+        public int getIssued() {
+            return issued;
+        }
+
+        /**
+         * Issues a commit as soon as the specified number of batches has
+         * completed and there are less than pipelineDepth commits in flight.
+         */
+        public void commit(JsopBatch batch, int required) throws Exception {
+            final int nbNodes = batch.size();
+            final String jsop = batch.flush();
+            awaitCompleted(required);
+            slots.acquire();
+            // queueing for the parents or a free slot is not commit latency
+            final long start = beginOperation();
+            final int sequence = issued++;
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        String id = mk.commit("/", jsop, null, "");
+                        complete(sequence, id, start);
+                        if (controller != null) {
+                            controller.record(nbNodes, System.nanoTime()
+                                    - start);
+                        }
+                    } catch (Exception e) {
+                        fail(e);
+                    } finally {
+                        slots.release();
+                    }
+                }
+
+            });
+        }
+
+        private synchronized void complete(int sequence, String id,
+                long start) {
+            // completions are serialized, as the histograms are not
+            // thread-safe
+            endOperation(OPERATION_COMMIT, start);
+            completed.set(sequence);
+            while (completed.get(prefix)) {
+                prefix++;
+            }
+            if (sequence > last) {
+                last = sequence;
+                revisionId = id;
+            }
+            notifyAll();
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        private synchronized void awaitCompleted(int n) throws Exception {
+            while (prefix < n && failure == null) {
+                wait();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Waits for all issued commits to complete and returns the revision
+         * id of the last one.
+         */
+        public synchronized String await() throws Exception {
+            awaitCompleted(issued);
+            return revisionId;
+        }
+
+    }
+
+}
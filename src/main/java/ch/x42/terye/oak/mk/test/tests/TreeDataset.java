@@ -0,0 +1,136 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+
+import ch.x42.terye.oak.mk.test.BatchSizeController;
+import ch.x42.terye.oak.mk.test.fixtures.Dataset;
+import ch.x42.terye.oak.mk.test.fixtures.GrowableDataset;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * Dataset consisting of a number of subtrees (node_0, node_1, ...) of the
+ * root node, loaded in parallel by a BulkLoader. A tree dataset can be grown
+ * into one with more subtrees of the same shape by loading the additional
+ * subtrees.
+ */
+public class TreeDataset implements GrowableDataset {
+
+    private final int nbSubtrees;
+    private final int height;
+    private final int branchingFactor;
+    private final int nbLoaders;
+    private final int batchSize;
+    // adapts the batch size of the loaders, if set
+    private BatchSizeController controller;
+
+    /**
+     * @param nbSubtrees the number of subtrees
+     * @param height the height of the subtrees
+     * @param branchingFactor the branching factor of the subtrees
+     * @param nbLoaders the number of loaders used to create the dataset
+     */
+    public TreeDataset(int nbSubtrees, int height, int branchingFactor,
+            int nbLoaders) {
+        this(nbSubtrees, height, branchingFactor, nbLoaders,
+                BulkLoader.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param nbSubtrees the number of subtrees
+     * @param height the height of the subtrees
+     * @param branchingFactor the branching factor of the subtrees
+     * @param nbLoaders the number of loaders used to create the dataset
+     * @param batchSize the number of nodes per commit of the loaders
+     */
+    public TreeDataset(int nbSubtrees, int height, int branchingFactor,
+            int nbLoaders, int batchSize) {
+        this.nbSubtrees = nbSubtrees;
+        this.height = height;
+        this.branchingFactor = branchingFactor;
+        this.nbLoaders = nbLoaders;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the controller adapting the number of nodes per commit of the
+     * loaders (see BulkLoader). The batch size does not affect the data, so
+     * neither it nor the controller is part of the name of the dataset.
+     */
+    public void setBatchSizeController(BatchSizeController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public String getName() {
+        return "tree[subtrees=" + nbSubtrees + ",height=" + height
+                + ",branchingFactor=" + branchingFactor + "]";
+    }
+
+    /**
+     * Returns the number of nodes of a subtree of the specified shape,
+     * including its root node.
+     */
+    public static long getSubtreeSize(int height, int branchingFactor) {
+        long size = 1;
+        long level = 1;
+        for (int i = 0; i < height; i++) {
+            level *= branchingFactor;
+            size += level;
+        }
+        return size;
+    }
+
+    @Override
+    public void create(MicroKernelTestFixture fixture) throws Exception {
+        load(fixture, 0);
+    }
+
+    @Override
+    public boolean contains(Dataset dataset) {
+        if (!(dataset instanceof TreeDataset)) {
+            return false;
+        }
+        TreeDataset other = (TreeDataset) dataset;
+        return other.height == height
+                && other.branchingFactor == branchingFactor
+                && other.nbSubtrees <= nbSubtrees;
+    }
+
+    @Override
+    public void grow(MicroKernelTestFixture fixture, Dataset dataset)
+            throws Exception {
+        load(fixture, ((TreeDataset) dataset).nbSubtrees);
+    }
+
+    /**
+     * Loads the subtrees starting at the specified index.
+     */
+    private void load(MicroKernelTestFixture fixture, int first)
+            throws Exception {
+        // commit the root nodes of the subtrees
+        List<String> roots = new ArrayList<String>();
+        StringBuilder jsop = new StringBuilder();
+        for (int i = first; i < nbSubtrees; i++) {
+            String node = TreeCommitter.NODE_PREFIX + i;
+            roots.add("/" + node);
+            jsop.append("+\"" + node + "\":{} ");
+        }
+        if (roots.isEmpty()) {
+            return;
+        }
+        MicroKernel mk = fixture.createMicroKernel();
+        try {
+            mk.commit("/", jsop.toString(), null, "");
+        } finally {
+            fixture.disposeMicroKernel(mk);
+        }
+        // load the subtrees
+        BulkLoader loader = new BulkLoader(fixture, nbLoaders, batchSize);
+        loader.setBatchSizeController(controller);
+        loader.load(roots, height, branchingFactor);
+    }
+
+}
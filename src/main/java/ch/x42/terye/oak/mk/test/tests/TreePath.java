@@ -0,0 +1,119 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+/**
+ * Path of a node in a tree whose nodes are named after their zero-based index
+ * among their siblings (see TreeCommitter.NODE_PREFIX). The path is built
+ * incrementally in a reusable buffer: moving to a child appends one element
+ * and moving to the next node on the same level only rewrites the elements
+ * that change, so no garbage is produced.
+ */
+public class TreePath implements CharSequence {
+
+    private final StringBuilder path;
+    private final int branchingFactor;
+    // index of the node on each level of the path (index 0 is the root)
+    private final int[] indexes;
+    // length of the path up to each level
+    private final int[] ends;
+    private int level;
+
+    /**
+     * @param root the path of the root node of the tree, may be relative
+     * @param branchingFactor the branching factor of the tree
+     * @param height the maximum level of the nodes of this path
+     */
+    public TreePath(String root, int branchingFactor, int height) {
+        path = new StringBuilder(root);
+        this.branchingFactor = branchingFactor;
+        indexes = new int[height + 1];
+        ends = new int[height + 1];
+        ends[0] = root.length();
+    }
+
+    /**
+     * Moves to the first node on the specified level (level 0 is the root).
+     *
+     * @return true
+     */
+    public boolean first(int level) {
+        this.level = 0;
+        path.setLength(ends[0]);
+        for (int i = 1; i <= level; i++) {
+            child(0);
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the next node on the current level.
+     *
+     * @return false if the current node is the last node on its level
+     */
+    public boolean next() {
+        // increment like an odometer
+        int i = level;
+        while (i > 0 && indexes[i] == branchingFactor - 1) {
+            i--;
+        }
+        if (i == 0) {
+            return false;
+        }
+        int target = level;
+        this.level = i - 1;
+        path.setLength(ends[i - 1]);
+        child(indexes[i] + 1);
+        while (this.level < target) {
+            child(0);
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the child with the specified index of the current node.
+     */
+    public void child(int index) {
+        level++;
+        indexes[level] = index;
+        if (path.length() > 0 && path.charAt(path.length() - 1) != '/') {
+            path.append('/');
+        }
+        path.append(TreeCommitter.NODE_PREFIX).append(index);
+        ends[level] = path.length();
+    }
+
+    /**
+     * Moves to the parent of the current node.
+     */
+    public void parent() {
+        level--;
+        path.setLength(ends[level]);
+    }
+
+    /**
+     * Returns the level of the current node.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int length() {
+        return path.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return path.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return path.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+}
@@ -0,0 +1,79 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import org.apache.jackrabbit.mk.api.MicroKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.x42.terye.oak.mk.test.fixtures.Dataset;
+import ch.x42.terye.oak.mk.test.fixtures.MicroKernelTestFixture;
+
+/**
+ * Dataset consisting of a single child node of the root node (PATH) with a
+ * large number of empty child nodes (node_0, node_1, ...). While the child
+ * nodes are added, the mean time per added node is logged for every power of
+ * ten the number of child nodes reaches, which shows how the cost of adding
+ * child nodes grows with the fan-out.
+ */
+public class WideNodeDataset implements Dataset {
+
+    public static final String PATH = "/wide";
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(WideNodeDataset.class);
+
+    // minimum number of child nodes added per commit
+    private static final int MIN_BATCH_SIZE = 1000;
+    // ratio of the number of child nodes added per commit to the number of
+    // existing child nodes (commits get slower with the fan-out)
+    private static final int GROWTH = 10;
+
+    private final int nbChildren;
+
+    /**
+     * @param nbChildren the number of child nodes
+     */
+    public WideNodeDataset(int nbChildren) {
+        this.nbChildren = nbChildren;
+    }
+
+    @Override
+    public String getName() {
+        return "wide[children=" + nbChildren + "]";
+    }
+
+    @Override
+    public void create(MicroKernelTestFixture fixture) throws Exception {
+        MicroKernel mk = fixture.createMicroKernel();
+        try {
+            mk.commit("", "+\"" + PATH + "\":{}", null, "");
+            JsopBatch batch = new JsopBatch();
+            // number of child nodes at which the next latency is logged
+            long next = 10;
+            int from = 0;
+            long latency = 0;
+            for (int i = 0; i < nbChildren;) {
+                int n = Math.min(Math.max(MIN_BATCH_SIZE, i / GROWTH),
+                        nbChildren - i);
+                for (int j = 0; j < n; j++) {
+                    batch.addNode(PATH, TreeCommitter.NODE_PREFIX, i++);
+                }
+                long start = System.nanoTime();
+                mk.commit("", batch.flush(), null, "");
+                latency += System.nanoTime() - start;
+                if (i >= next || i == nbChildren) {
+                    logger.debug(String.format("Child nodes %d to %d: %.3f us "
+                            + "per node", from, i, latency / (i - from)
+                            / 1000.0));
+                    from = i;
+                    latency = 0;
+                    while (next <= i) {
+                        next *= 10;
+                    }
+                }
+            }
+        } finally {
+            fixture.disposeMicroKernel(mk);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+
+import ch.x42.terye.oak.mk.test.ConcurrentHistogram;
+import ch.x42.terye.oak.mk.test.Histogram;
+import ch.x42.terye.oak.mk.test.MeasurementWindow;
+import ch.x42.terye.oak.mk.test.Pacer;
+
+/**
+ * Base class for the workers used by the tests. A worker measures the latency
+ * of each of the microkernel calls it performs: subclasses call
+ * beginOperation() right before and endOperation() right after the call. The
+ * latencies are recorded into one histogram per operation, which are
+ * allocated upfront so that the measurement itself does not produce garbage.
+ * Workers of runs with a large number of clients can instead record into
+ * histograms shared by all workers (see setSharedLatencies()), which saves
+ * the memory of the per-worker histograms.
+ * A pacer determines when the operations are issued (by default as fast as
+ * possible, see Pacer). Workers issuing operations at a rate of their own,
+ * independent of the target rate of the test, pass it to the constructor.
+ * <p>
+ * Workers can optionally wait on a barrier before starting, so that several
+ * workers start at the same time, and run within a measurement window, in
+ * which case only the operations started within the measurement phase of the
+ * window are recorded and the worker stops at the end of the window (see
+ * isRunning()).
+ */
+public abstract class Worker implements Callable<String> {
+
+    private final String[] operations;
+    // operations per second of this worker, -1 if it follows the target rate
+    private final double rate;
+    private final Map<String, Histogram> latencies;
+    private Map<String, ConcurrentHistogram> shared;
+    private Pacer pacer;
+    private CyclicBarrier barrier;
+    private MeasurementWindow window;
+    // number of operations performed
+    private long nbOperations;
+
+    /**
+     * @param operations the names of the operations performed by this worker
+     */
+    protected Worker(String... operations) {
+        this(-1.0, operations);
+    }
+
+    /**
+     * @param rate the number of operations per second of this worker, 0 for
+     *            closed-loop, regardless of the target rate of the test
+     * @param operations the names of the operations performed by this worker
+     */
+    protected Worker(double rate, String... operations) {
+        this.rate = rate;
+        this.operations = operations;
+        latencies = new HashMap<String, Histogram>();
+        pacer = new Pacer();
+    }
+
+    public void setPacer(Pacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Returns the number of operations per second of this worker, or -1 if
+     * it issues its operations at the target rate of the test.
+     */
+    public double getFixedRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the barrier the worker waits on before starting to work.
+     */
+    public void setBarrier(CyclicBarrier barrier) {
+        this.barrier = barrier;
+    }
+
+    /**
+     * Sets the measurement window of a duration-based run.
+     */
+    public void setWindow(MeasurementWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * Returns the names of the operations performed by this worker.
+     */
+    public String[] getOperationNames() {
+        return operations.clone();
+    }
+
+    /**
+     * Makes the worker record its latencies into the specified shared
+     * histograms (keyed by operation name) rather than its own histograms.
+     */
+    public void setSharedLatencies(Map<String, ConcurrentHistogram> shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the number of operations performed (within the measurement
+     * phase, if any) since the last call to resetLatencies().
+     */
+    public long getOperations() {
+        return nbOperations;
+    }
+
+    /**
+     * Returns the latencies recorded since the last call to
+     * resetLatencies(), keyed by operation name (empty if the worker records
+     * into shared histograms).
+     */
+    public Map<String, Histogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    public void resetLatencies() {
+        for (Histogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        nbOperations = 0;
+    }
+
+    @Override
+    public final String call() throws Exception {
+        if (shared == null && latencies.isEmpty()) {
+            for (String operation : operations) {
+                latencies.put(operation, new Histogram());
+            }
+        }
+        if (barrier != null) {
+            barrier.await();
+        }
+        return work();
+    }
+
+    /**
+     * Performs the work of this worker.
+     *
+     * @return the id of the last revision committed by this worker, if any
+     */
+    protected abstract String work() throws Exception;
+
+    /**
+     * Returns true if the worker should continue working. In a duration-based
+     * run this is the case until the end of the measurement window, otherwise
+     * the decision is up to the worker.
+     *
+     * @param pending true if the worker has work left
+     */
+    protected final boolean isRunning(boolean pending) {
+        if (window == null) {
+            return pending;
+        }
+        return !window.isOver(System.nanoTime());
+    }
+
+    /**
+     * Returns true if the end of the measurement window has been reached.
+     * Workers doing a finite amount of work must check this in duration-based
+     * runs.
+     */
+    protected final boolean isStopped() {
+        return window != null && window.isOver(System.nanoTime());
+    }
+
+    /**
+     * Returns true if an operation started at the specified time is taken
+     * into account, i.e. if it has been started within the measurement phase
+     * (always the case if there is no measurement window).
+     */
+    protected final boolean isMeasuring(long start) {
+        return window == null || window.isMeasuring(start);
+    }
+
+    /**
+     * Marks the start of an operation. Blocks until the operation is due
+     * according to the pacer.
+     *
+     * @return the (intended) start time to be passed to endOperation()
+     */
+    protected final long beginOperation() {
+        return pacer.acquire();
+    }
+
+    /**
+     * Marks the end of an operation and records its latency, unless the
+     * operation has not been started within the measurement phase.
+     *
+     * @param operation the name of the operation, must have been passed to
+     *            the constructor
+     * @param start the value returned by the corresponding call to
+     *            beginOperation()
+     */
+    protected final void endOperation(String operation, long start) {
+        long end = System.nanoTime();
+        if (!isMeasuring(start)) {
+            return;
+        }
+        if (shared != null) {
+            shared.get(operation).record(end - start);
+        } else {
+            latencies.get(operation).record(end - start);
+        }
+        nbOperations++;
+    }
+
+}
@@ -0,0 +1,98 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import ch.x42.terye.oak.mk.test.BatchSizeController.Sample;
+
+public class BatchSizeControllerTest {
+
+    // number of batches per step of the controller
+    private static final int STEP = 10;
+
+    /**
+     * Returns the latency of a batch of a system whose throughput peaks at
+     * batches of 100 items. Every step of the controller takes as long as
+     * the latency of its first batch (at least one second), so that the
+     * measured throughput does not depend on the speed of the test.
+     */
+    private static long getLatency(int size) {
+        double x = size / 100.0;
+        return (long) (1000000000.0 * (1.0 + x * x));
+    }
+
+    private static void run(BatchSizeController controller, int steps) {
+        for (int i = 0; i < steps * STEP && !controller.isConverged(); i++) {
+            int size = controller.getBatchSize();
+            controller.record(size, getLatency(size));
+        }
+    }
+
+    @Test
+    public void initialSizeWithinBounds() {
+        assertEquals(5, new BatchSizeController(1, 5, 50, 0).getBatchSize());
+        assertEquals(50, new BatchSizeController(500, 5, 50, 0)
+                .getBatchSize());
+    }
+
+    @Test
+    public void convergesToPeak() {
+        BatchSizeController controller = new BatchSizeController(10, 1,
+                10000, 0);
+        run(controller, 100);
+        assertTrue(controller.isConverged());
+        int size = controller.getBatchSize();
+        assertTrue("size " + size, size >= 80 && size <= 125);
+        SortedMap<Integer, Sample> curve = controller.getCurve();
+        assertTrue(curve.containsKey(10));
+        assertTrue(curve.containsKey(size));
+        assertEquals(STEP, curve.get(10).getBatches());
+        assertEquals(getLatency(10), curve.get(10).getMeanLatency(), 1.0);
+    }
+
+    @Test
+    public void respectsLatencyCeiling() {
+        // batches of more than about 70 items exceed 1.5 s
+        BatchSizeController controller = new BatchSizeController(10, 1,
+                10000, 1500000000L);
+        run(controller, 100);
+        assertTrue(controller.isConverged());
+        int size = controller.getBatchSize();
+        assertTrue("size " + size, size >= 40
+                && getLatency(size) <= 1500000000L);
+    }
+
+    @Test
+    public void respectsMaximumSize() {
+        BatchSizeController controller = new BatchSizeController(10, 1, 30, 0);
+        run(controller, 100);
+        assertTrue(controller.isConverged());
+        assertEquals(30, controller.getBatchSize());
+    }
+
+    @Test
+    public void freeze() {
+        BatchSizeController controller = new BatchSizeController(10, 1,
+                10000, 0);
+        // measure 10, then 20, which is better
+        run(controller, 2);
+        assertEquals(40, controller.getBatchSize());
+        assertTrue(controller.freeze());
+        assertTrue(controller.isConverged());
+        // back to the best size measured
+        assertEquals(20, controller.getBatchSize());
+        assertFalse(controller.freeze());
+        // batches are still recorded, but the size does not change anymore
+        for (int i = 0; i < STEP; i++) {
+            controller.record(20, getLatency(20));
+        }
+        assertEquals(20, controller.getBatchSize());
+        assertEquals(2 * STEP, controller.getCurve().get(20).getBatches());
+    }
+
+}
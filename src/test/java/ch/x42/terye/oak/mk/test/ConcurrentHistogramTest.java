@@ -0,0 +1,72 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConcurrentHistogramTest {
+
+    private static final int THREADS = 4;
+    private static final int VALUES = 10000;
+
+    @Test
+    public void snapshotEqualsPlainHistogram() throws Exception {
+        final ConcurrentHistogram concurrent = new ConcurrentHistogram();
+        Histogram expected = new Histogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < VALUES; i++) {
+                        concurrent.record(getValue(offset, i));
+                    }
+                }
+
+            });
+            for (int i = 0; i < VALUES; i++) {
+                expected.record(getValue(offset, i));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Histogram snapshot = concurrent.snapshot();
+        assertEquals(THREADS * VALUES, snapshot.getTotalCount());
+        assertEquals(expected.getMean(), snapshot.getMean(), 1e-9);
+        assertEquals(expected.getMin(), snapshot.getMin());
+        assertEquals(expected.getMax(), snapshot.getMax());
+        for (double p : new double[] {
+            0.0, 50.0, 90.0, 99.0, 99.9, 100.0
+        }) {
+            assertEquals(expected.getValueAtPercentile(p), snapshot
+                    .getValueAtPercentile(p));
+        }
+    }
+
+    private static long getValue(int thread, int i) {
+        return (long) i * i * (thread + 1);
+    }
+
+    @Test
+    public void clampAndReset() {
+        ConcurrentHistogram h = new ConcurrentHistogram();
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        Histogram snapshot = h.snapshot();
+        assertEquals(2, snapshot.getTotalCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(Histogram.MAX_VALUE, snapshot.getMax());
+        h.reset();
+        assertEquals(0, h.snapshot().getTotalCount());
+    }
+
+}
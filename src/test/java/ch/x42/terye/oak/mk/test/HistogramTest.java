@@ -0,0 +1,109 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void empty() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getTotalCount());
+        assertEquals(0.0, h.getMean(), 0.0);
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(50.0));
+        assertTrue(h.getBuckets().isEmpty());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        assertEquals(100, h.getTotalCount());
+        assertEquals(50.5, h.getMean(), 1e-12);
+        assertEquals(1, h.getMin());
+        assertEquals(100, h.getMax());
+        assertEquals(50, h.getValueAtPercentile(50.0));
+        assertEquals(90, h.getValueAtPercentile(90.0));
+        assertEquals(99, h.getValueAtPercentile(99.0));
+        assertEquals(100, h.getValueAtPercentile(100.0));
+        assertEquals(1, h.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void bucketResolution() {
+        for (long value = 128; value < Histogram.MAX_VALUE; value *= 3) {
+            int index = Histogram.getIndex(value);
+            long low = Histogram.getLowestValue(index);
+            long high = Histogram.getHighestValue(index);
+            assertTrue(low <= value && value <= high);
+            assertTrue((high - low + 1) * 64 <= low);
+        }
+        assertEquals(Histogram.BUCKET_COUNT - 1, Histogram
+                .getIndex(Histogram.MAX_VALUE));
+    }
+
+    @Test
+    public void percentileStaysWithinRecordedRange() {
+        Histogram h = new Histogram();
+        h.record(1000003);
+        // the bucket of the value reaches beyond it
+        int index = Histogram.getIndex(1000003);
+        assertTrue(Histogram.getHighestValue(index) > 1000003);
+        assertEquals(1000003, h.getValueAtPercentile(50.0));
+        assertEquals(1000003, h.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void valuesOutOfRangeAreClamped() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(0, h.getMin());
+        assertEquals(Histogram.MAX_VALUE, h.getMax());
+    }
+
+    @Test
+    public void recordValues() {
+        Histogram h = new Histogram();
+        h.recordValues(10, 3);
+        h.recordValues(20, 0);
+        assertEquals(3, h.getTotalCount());
+        assertEquals(10.0, h.getMean(), 0.0);
+        List<long[]> buckets = h.getBuckets();
+        assertEquals(1, buckets.size());
+        assertArrayEquals(new long[] {
+            10, 3
+        }, buckets.get(0));
+    }
+
+    @Test
+    public void addCopyAndReset() {
+        Histogram a = new Histogram();
+        a.record(5);
+        a.record(7);
+        Histogram b = new Histogram();
+        b.record(1);
+        b.record(1000000);
+        a.add(b);
+        a.add(new Histogram());
+        assertEquals(4, a.getTotalCount());
+        assertEquals(1, a.getMin());
+        assertEquals(1000000, a.getMax());
+        assertEquals((5 + 7 + 1 + 1000000) / 4.0, a.getMean(), 1e-9);
+        Histogram copy = a.copy();
+        a.reset();
+        assertEquals(0, a.getTotalCount());
+        assertEquals(4, copy.getTotalCount());
+        assertEquals(7, copy.getValueAtPercentile(75.0));
+    }
+
+}
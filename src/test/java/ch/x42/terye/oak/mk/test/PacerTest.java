@@ -0,0 +1,72 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PacerTest {
+
+    @Test
+    public void closedLoop() {
+        Pacer pacer = new Pacer();
+        assertFalse(pacer.isOpenLoop());
+        long before = System.nanoTime();
+        long start = pacer.acquire();
+        assertTrue(start >= before && start <= System.nanoTime());
+        assertFalse(Pacer.share(0.0, 1, 4).isOpenLoop());
+    }
+
+    @Test
+    public void fixedRate() {
+        // one operation per millisecond
+        Pacer pacer = new Pacer(1000.0, 0L);
+        assertTrue(pacer.isOpenLoop());
+        long first = pacer.acquire();
+        for (int i = 1; i <= 10; i++) {
+            long start = pacer.acquire();
+            // the intended start times don't depend on when acquire() is
+            // called
+            assertEquals(first + i * 1000000L, start);
+            assertTrue(System.nanoTime() >= start);
+        }
+    }
+
+    @Test
+    public void fallingBehindDoesNotSkipOperations() throws Exception {
+        Pacer pacer = new Pacer(1000.0, 0L);
+        long first = pacer.acquire();
+        Thread.sleep(20);
+        // the operations due in the meantime are issued back-to-back
+        assertEquals(first + 1000000L, pacer.acquire());
+        assertEquals(first + 2000000L, pacer.acquire());
+    }
+
+    @Test
+    public void share() {
+        // 3 pacers at 100 ops/s each, staggered by a third of the interval
+        Pacer pacer = Pacer.share(300.0, 1, 3);
+        long before = System.nanoTime();
+        long first = pacer.acquire();
+        assertTrue(first - before >= 10000000L / 3);
+        assertEquals(first + 10000000L, pacer.acquire());
+    }
+
+    @Test
+    public void reset() {
+        // one operation per second
+        Pacer pacer = new Pacer(1.0, 0L);
+        long first = pacer.acquire();
+        pacer.reset();
+        // a new schedule starts now rather than one second after first
+        long start = pacer.acquire();
+        assertTrue(start - first < 500000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRate() {
+        new Pacer(-1.0, 0L);
+    }
+
+}
@@ -0,0 +1,128 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RunResult createRun(long duration, double throughput) {
+        Histogram h = new Histogram();
+        h.record(1000);
+        h.record(3000);
+        Map<String, Histogram> latencies = new HashMap<String, Histogram>();
+        latencies.put("read", h);
+        return new RunResult(duration, throughput, latencies);
+    }
+
+    @Test
+    public void fileName() {
+        assertEquals("Test.test_parameters=memory,_2.json", ResultStore
+                .getFileName("Test.test [parameters=memory, 2]"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writeAndRead() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot());
+        List<RunResult> runs = new ArrayList<RunResult>();
+        runs.add(createRun(2000000, 1000.5));
+        runs.add(createRun(3000000, 1.5e-5));
+        Timer timer = new Timer();
+        timer.setWarmup(5000000000L, 3, true);
+        for (RunResult run : runs) {
+            timer.recordLatencies("read", run.getLatencies().get("read"));
+        }
+        // strings that need to be escaped
+        String test = "Test.test [parameters=\"mem\\ory\"\n]";
+        Workload workload = new Workload().with("nbReads", "10");
+        store.write(test, new Object[] {
+            "mem\"ory", workload
+        }, runs, timer, 0.95);
+
+        File file = new File(folder.getRoot(), ResultStore.getFileName(test));
+        Map<String, Object> json = ResultStore.read(file);
+        assertEquals(test, json.get("test"));
+        assertEquals(Arrays.asList("mem\"ory"), json.get("parameters"));
+        assertEquals("mem\"ory", json.get("fixture"));
+        assertEquals(Collections.singletonMap("nbReads", "10"), json
+                .get("workload"));
+        Map<String, Object> warmup = (Map<String, Object>) json.get("warmup");
+        assertEquals(3.0, warmup.get("runs"));
+        assertEquals(5000.0, warmup.get("duration"));
+        assertEquals(Boolean.TRUE, warmup.get("steady"));
+        assertEquals(0.95, json.get("confidence"));
+
+        List<Object> list = (List<Object>) json.get("runs");
+        assertEquals(2, list.size());
+        List<Map<String, Double>> metrics =
+                new ArrayList<Map<String, Double>>();
+        for (Object run : list) {
+            metrics.add(RunResult.getMetrics((Map<String, Object>) run));
+        }
+        assertEquals(RunResult.getMetrics(runs), metrics);
+        Map<String, Object> first = (Map<String, Object>) list.get(0);
+        assertEquals(1000.5, first.get("throughput"));
+        assertEquals(Boolean.FALSE, first.get("outlier"));
+        assertEquals(1.5e-5, ((Map<String, Object>) list.get(1))
+                .get("throughput"));
+
+        Map<String, Object> intervals = (Map<String, Object>) json
+                .get("confidenceIntervals");
+        assertTrue(intervals.containsKey(RunResult.METRIC_THROUGHPUT));
+        Map<String, Object> latencies = (Map<String, Object>) json
+                .get("latencies");
+        Map<String, Object> read = (Map<String, Object>) latencies.get("read");
+        assertEquals(4.0, read.get("count"));
+        assertEquals(Arrays.asList(Arrays.asList(1000.0, 2.0), Arrays.asList(
+                2976.0, 2.0)), read.get("buckets"));
+
+        assertTrue(new File(folder.getRoot(), ResultStore.CSV_FILE).isFile());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void singleRunHasNoConfidenceIntervals() throws IOException {
+        ResultStore store = new ResultStore(folder.getRoot());
+        List<RunResult> runs = Collections.singletonList(createRun(1000000,
+                0.0));
+        Map<String, Object> written = store.write("Test.single", null, runs,
+                new Timer(), 0.95);
+        Map<String, Object> json = ResultStore.read(new File(
+                folder.getRoot(), ResultStore.getFileName("Test.single")));
+        assertTrue(((Map<String, Object>) json.get("confidenceIntervals"))
+                .isEmpty());
+        assertNull(json.get("fixture"));
+        assertEquals(written.keySet(), json.keySet());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidFile() throws IOException {
+        File file = folder.newFile("invalid.json");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("{\"test\":".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        ResultStore.read(file);
+    }
+
+}
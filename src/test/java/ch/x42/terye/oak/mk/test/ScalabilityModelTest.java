@@ -0,0 +1,87 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScalabilityModelTest {
+
+    private static final int[] CONCURRENCY = {
+        1, 2, 4, 8, 16, 32, 64
+    };
+
+    private static double[] getThroughput(ScalabilityModel model, int[] n) {
+        double[] throughput = new double[n.length];
+        for (int i = 0; i < n.length; i++) {
+            throughput[i] = model.getThroughput(n[i]);
+        }
+        return throughput;
+    }
+
+    @Test
+    public void throughput() {
+        ScalabilityModel model = new ScalabilityModel(100.0, 0.05, 0.001);
+        assertEquals(100.0, model.getThroughput(1), 1e-9);
+        // 100 * 10 / (1 + 0.45 + 0.09)
+        assertEquals(1000.0 / 1.54, model.getThroughput(10), 1e-9);
+        assertEquals(Math.sqrt(0.95 / 0.001), model.getPeakConcurrency(),
+                1e-9);
+    }
+
+    @Test
+    public void peakConcurrency() {
+        assertTrue(Double.isInfinite(new ScalabilityModel(100.0, 0.1, 0.0)
+                .getPeakConcurrency()));
+        assertEquals(1.0, new ScalabilityModel(100.0, 1.0, 0.01)
+                .getPeakConcurrency(), 0.0);
+    }
+
+    @Test
+    public void fitRecoversParameters() {
+        ScalabilityModel expected = new ScalabilityModel(250.0, 0.03, 0.0005);
+        ScalabilityModel model = ScalabilityModel.fit(CONCURRENCY,
+                getThroughput(expected, CONCURRENCY));
+        assertEquals(250.0, model.getLambda(), 1e-9);
+        assertEquals(0.03, model.getSigma(), 1e-9);
+        assertEquals(0.0005, model.getKappa(), 1e-12);
+    }
+
+    @Test
+    public void fitLinearScaling() {
+        ScalabilityModel model = ScalabilityModel.fit(CONCURRENCY,
+                getThroughput(new ScalabilityModel(10.0, 0.0, 0.0),
+                        CONCURRENCY));
+        assertEquals(0.0, model.getSigma(), 1e-9);
+        assertEquals(0.0, model.getKappa(), 1e-12);
+    }
+
+    @Test
+    public void fitContentionOnly() {
+        // a single level above one only determines sigma
+        int[] concurrency = {
+            1, 4
+        };
+        ScalabilityModel model = ScalabilityModel.fit(concurrency,
+                getThroughput(new ScalabilityModel(10.0, 0.2, 0.0),
+                        concurrency));
+        assertEquals(0.2, model.getSigma(), 1e-9);
+        assertEquals(0.0, model.getKappa(), 0.0);
+    }
+
+    @Test
+    public void fitInsufficientData() {
+        assertNull(ScalabilityModel.fit(new int[] {
+            1
+        }, new double[] {
+            100.0
+        }));
+        assertNull(ScalabilityModel.fit(new int[] {
+            1, 2
+        }, new double[] {
+            0.0, 100.0
+        }));
+    }
+
+}
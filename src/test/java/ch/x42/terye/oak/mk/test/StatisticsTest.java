@@ -0,0 +1,102 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class StatisticsTest {
+
+    private static final double[] ONE_TO_FIVE = {
+        1, 2, 3, 4, 5
+    };
+
+    @Test
+    public void meanVarianceMedian() {
+        assertEquals(3.0, Statistics.mean(ONE_TO_FIVE), 1e-12);
+        assertEquals(2.5, Statistics.variance(ONE_TO_FIVE), 1e-12);
+        assertEquals(3.0, Statistics.median(ONE_TO_FIVE), 1e-12);
+        assertEquals(2.5, Statistics.median(new double[] {
+            4, 1, 3, 2
+        }), 1e-12);
+    }
+
+    @Test
+    public void studentT() {
+        // known values of the t distribution
+        assertEquals(0.5, Statistics.studentT(0.0, 4), 1e-9);
+        assertEquals(0.975, Statistics.studentT(2.776, 4), 1e-4);
+        assertEquals(0.025, Statistics.studentT(-2.776, 4), 1e-4);
+    }
+
+    @Test
+    public void tQuantile() {
+        assertEquals(4.3027, Statistics.tQuantile(0.975, 2), 1e-4);
+        assertEquals(2.2622, Statistics.tQuantile(0.975, 9), 1e-4);
+        assertEquals(63.657, Statistics.tQuantile(0.995, 1), 1e-3);
+        assertEquals(-2.5706, Statistics.tQuantile(0.025, 5), 1e-4);
+    }
+
+    @Test
+    public void incompleteBetaAndLogGamma() {
+        // I_0.5(2, 3) = (6 + 4 + 1) / 16
+        assertEquals(11.0 / 16.0, Statistics.incompleteBeta(0.5, 2, 3), 1e-9);
+        assertEquals(Math.log(24.0), Statistics.logGamma(5.0), 1e-9);
+        assertEquals(0.5 * Math.log(Math.PI), Statistics.logGamma(0.5), 1e-9);
+    }
+
+    @Test
+    public void confidenceInterval() {
+        // t(0.975, 4) * sqrt(2.5 / 5)
+        assertEquals(1.9632, Statistics.confidenceInterval(ONE_TO_FIVE, 0.95),
+                1e-4);
+        assertTrue(Double.isInfinite(Statistics.confidenceInterval(
+                new double[] {
+                    1
+                }, 0.95)));
+    }
+
+    @Test
+    public void outliers() {
+        assertEquals(Arrays.asList(4), Statistics.outliers(new double[] {
+            10, 11, 10.5, 10.2, 30, 9.8
+        }));
+        assertEquals(Collections.emptyList(), Statistics
+                .outliers(ONE_TO_FIVE));
+    }
+
+    @Test
+    public void welchTest() {
+        double[] a = ONE_TO_FIVE;
+        double[] b = {
+            3, 4, 5, 6, 7
+        };
+        // t = 2, df = 8
+        assertEquals(0.0403, Statistics.welchTest(a, b), 1e-4);
+        assertEquals(1.0 - 0.0403, Statistics.welchTest(b, a), 1e-4);
+        assertEquals(0.5, Statistics.welchTest(a, a), 1e-9);
+    }
+
+    @Test
+    public void welchTestWithoutVariance() {
+        double[] a = {
+            1, 1
+        };
+        double[] b = {
+            2, 2
+        };
+        assertEquals(0.0, Statistics.welchTest(a, b), 0.0);
+        assertEquals(1.0, Statistics.welchTest(b, a), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void welchTestNeedsTwoSamples() {
+        Statistics.welchTest(new double[] {
+            1
+        }, ONE_TO_FIVE);
+    }
+
+}
@@ -0,0 +1,58 @@
+package ch.x42.terye.oak.mk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SteadyStateDetectorTest {
+
+    private static SteadyStateDetector create(double... samples) {
+        SteadyStateDetector detector = new SteadyStateDetector(3, 0.05, 0.05);
+        for (double sample : samples) {
+            detector.addSample(sample);
+        }
+        return detector;
+    }
+
+    @Test
+    public void notEnoughRuns() {
+        SteadyStateDetector detector = create(100, 100, 100, 100, 100);
+        assertEquals(5, detector.getSampleCount());
+        assertTrue(Double.isNaN(detector.getChange()));
+        assertFalse(detector.isSteady());
+    }
+
+    @Test
+    public void rampUp() {
+        SteadyStateDetector detector = create(50, 70, 90, 100, 101, 99);
+        // from 70 to 100
+        assertEquals(3.0 / 7.0, detector.getChange(), 1e-9);
+        assertFalse(detector.isSteady());
+        detector.addSample(100);
+        detector.addSample(100.5);
+        detector.addSample(99.5);
+        // only the last two windows are compared
+        assertEquals(0.0, detector.getChange(), 1e-9);
+        assertTrue(detector.isSteady());
+    }
+
+    @Test
+    public void significantChangeWithinTolerance() {
+        // +2%, but without any noise
+        SteadyStateDetector detector = create(100, 100.01, 100.02, 102,
+                102.01, 102.02);
+        assertEquals(0.02, detector.getChange(), 1e-3);
+        assertFalse(detector.isSteady());
+    }
+
+    @Test
+    public void insignificantChangeBeyondTolerance() {
+        // +16.7%, but within the noise
+        SteadyStateDetector detector = create(50, 150, 100, 150, 60, 140);
+        assertEquals(1.0 / 6.0, detector.getChange(), 1e-9);
+        assertFalse(detector.isSteady());
+    }
+
+}
@@ -0,0 +1,44 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsopBatchTest {
+
+    @Test
+    public void statements() {
+        JsopBatch batch = new JsopBatch();
+        batch.addNode("/a");
+        batch.addNode("/a", "node_", 3);
+        batch.addNode("/", "node_", 4);
+        batch.addNode("", "node_", 5);
+        batch.setProperty("/a/node_3", "prop_", 1, "\"x\"");
+        assertEquals(5, batch.size());
+        assertEquals("+\"/a\":{} +\"/a/node_3\":{} +\"/node_4\":{} "
+                + "+\"node_5\":{} ^\"/a/node_3/prop_1\":\"x\" ", batch
+                .toString());
+    }
+
+    @Test
+    public void flush() {
+        JsopBatch batch = new JsopBatch();
+        batch.addNode("/a");
+        assertEquals("+\"/a\":{} ", batch.flush());
+        assertEquals(0, batch.size());
+        assertEquals("", batch.toString());
+        batch.setProperty("/a", "p", 0, "1");
+        assertEquals("^\"/a/p0\":1 ", batch.flush());
+    }
+
+    @Test
+    public void treePath() {
+        TreePath path = new TreePath("/t", 2, 1);
+        JsopBatch batch = new JsopBatch();
+        for (boolean more = path.first(1); more; more = path.next()) {
+            batch.addNode(path);
+        }
+        assertEquals("+\"/t/node_0\":{} +\"/t/node_1\":{} ", batch.flush());
+    }
+
+}
@@ -0,0 +1,75 @@
+package ch.x42.terye.oak.mk.test.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TreePathTest {
+
+    @Test
+    public void firstAndNext() {
+        TreePath path = new TreePath("/root", 2, 2);
+        List<String> paths = new ArrayList<String>();
+        for (boolean more = path.first(2); more; more = path.next()) {
+            assertEquals(2, path.getLevel());
+            paths.add(path.toString());
+        }
+        assertEquals(Arrays.asList("/root/node_0/node_0",
+                "/root/node_0/node_1", "/root/node_1/node_0",
+                "/root/node_1/node_1"), paths);
+    }
+
+    @Test
+    public void root() {
+        TreePath path = new TreePath("/root", 3, 2);
+        assertTrue(path.first(0));
+        assertEquals("/root", path.toString());
+        assertEquals(0, path.getLevel());
+        assertFalse(path.next());
+    }
+
+    @Test
+    public void childAndParent() {
+        TreePath path = new TreePath("/", 10, 3);
+        path.first(0);
+        path.child(3);
+        path.child(7);
+        assertEquals("/node_3/node_7", path.toString());
+        assertEquals(2, path.getLevel());
+        path.parent();
+        assertEquals("/node_3", path.toString());
+        path.child(12);
+        assertEquals("/node_3/node_12", path.toString());
+        // the last node on its level in a tree of branching factor 10 is 9
+        path.parent();
+        path.child(9);
+        assertTrue(path.next());
+        assertEquals("/node_4/node_0", path.toString());
+    }
+
+    @Test
+    public void relativeRoot() {
+        TreePath path = new TreePath("", 2, 1);
+        path.first(1);
+        assertEquals("node_0", path.toString());
+        assertTrue(path.next());
+        assertEquals("node_1", path.toString());
+        assertFalse(path.next());
+    }
+
+    @Test
+    public void charSequence() {
+        TreePath path = new TreePath("/a", 2, 1);
+        path.first(1);
+        assertEquals(9, path.length());
+        assertEquals('n', path.charAt(3));
+        assertEquals("node_0", path.subSequence(3, 9).toString());
+    }
+
+}